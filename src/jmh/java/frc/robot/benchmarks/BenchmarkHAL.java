@@ -0,0 +1,22 @@
+package frc.robot.benchmarks;
+
+import edu.wpi.first.hal.HAL;
+
+/**
+ * Brings up the desktop HAL sim once per benchmark fork so hardware classes can be constructed.
+ */
+final class BenchmarkHAL {
+    private static boolean initialized = false;
+
+    private BenchmarkHAL() {}
+
+    static synchronized void initialize() {
+        if (initialized) {
+            return;
+        }
+        if (!HAL.initialize(500, 0)) {
+            throw new IllegalStateException("Failed to initialize the HAL sim");
+        }
+        initialized = true;
+    }
+}
@@ -0,0 +1,47 @@
+package frc.robot.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import frc.robot.Constants.ElevatorConstants;
+import frc.robot.subsystems.mechanisms.ElevatorSubsystem;
+
+/**
+ * Per-call cost of the elevator control loop against simulated SparkMaxes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElevatorBenchmark {
+    private ElevatorSubsystem elevator;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkHAL.initialize();
+        elevator = new ElevatorSubsystem();
+    }
+
+    @Benchmark
+    public void reachGoal() {
+        elevator.reachGoal(ElevatorConstants.kL2Height);
+    }
+
+    @Benchmark
+    public void periodic() {
+        elevator.periodic();
+    }
+}
@@ -0,0 +1,55 @@
+package frc.robot.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import frc.robot.Constants.ShooterConstants;
+import frc.robot.subsystems.mechanisms.ShooterSubsystem;
+
+/**
+ * Per-call cost of the shooter's Kalman/LQR loop and coral sensor read against a simulated SparkMax.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShooterBenchmark {
+    private ShooterSubsystem shooter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkHAL.initialize();
+        // No Notifier, so controlLoop() measures only the calls made here
+        shooter = new ShooterSubsystem(false);
+        shooter.initFlywheel();
+        shooter.guidedShoot(ShooterConstants.kL24Speed);
+    }
+
+    @Benchmark
+    public void periodic() {
+        shooter.periodic();
+    }
+
+    @Benchmark
+    public void controlLoop() {
+        shooter.runControlLoop();
+    }
+
+    @Benchmark
+    public boolean hasCoral() {
+        return shooter.hasCoral();
+    }
+}
@@ -0,0 +1,84 @@
+package frc.robot.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.wpi.first.wpilibj.Filesystem;
+import frc.robot.commands.swerve.FieldOrientedPOVDrive;
+import frc.robot.subsystems.swerve.SwerveSubsystem;
+import swervelib.SwerveInputStream;
+
+/**
+ * Per-call cost of the swerve subsystem's periodic() and of the default drive command, using YAGSL's
+ * simulated drive built from the same deploy/swerve configs as the robot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SwerveBenchmark {
+    /** Whether a POV heading button is held, which takes the precomputed heading path in execute(). */
+    @Param({"false", "true"})
+    public boolean povPressed;
+
+    /** Elevator height, which moves the carriage CoG the tip limiter runs with. */
+    @Param({"0.0", "1.2"})
+    public double elevatorHeight;
+
+    private SwerveSubsystem swerve;
+    private FieldOrientedPOVDrive povDrive;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkHAL.initialize();
+        swerve = new SwerveSubsystem(new File(Filesystem.getDeployDirectory(), "swerve"));
+
+        SwerveInputStream inputs = SwerveInputStream.of(swerve.getSwerveDrive(),
+                                                        () -> 0.5,
+                                                        () -> 0.25)
+                                                    .withControllerHeadingAxis(() -> 0.7, () -> 0.7)
+                                                    .headingWhile(true)
+                                                    .allianceRelativeControl(true);
+        boolean pressed = povPressed;
+        double height = elevatorHeight;
+        povDrive = new FieldOrientedPOVDrive(swerve,
+                                             () -> pressed,
+                                             () -> false,
+                                             () -> false,
+                                             () -> false,
+                                             () -> false,
+                                             () -> false,
+                                             () -> false,
+                                             () -> false,
+                                             () -> 0.7,
+                                             () -> 0.7,
+                                             inputs,
+                                             () -> height);
+        povDrive.initialize();
+    }
+
+    @Benchmark
+    public void swervePeriodic() {
+        swerve.periodic();
+    }
+
+    @Benchmark
+    public void povDriveExecute() {
+        povDrive.execute();
+    }
+}
@@ -17,6 +17,7 @@ import edu.wpi.first.math.geometry.Rotation3d;
 import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.units.measure.Distance;
+import edu.wpi.first.wpilibj.TimedRobot;
 import swervelib.math.Matter;
 
 /**
@@ -38,20 +39,104 @@ public final class Constants {
     public static final int kOperatorControllerPort = 1;
   }
 
+  public static class ProfilerConstants {
+    public static final boolean kEnabled = true; // can also be toggled at runtime from /Profiler/Enabled
+    public static final int kWindowSize = 256; // samples kept per component, ~5 s of loops
+    public static final int kPublishPeriodLoops = 50; // publish percentiles once per second
+  }
+
+  public static class CanConstants {
+    public static final double kBusBitsPerSecond = 1_000_000;
+    public static final int kBitsPerFrame = 131; // extended ID, 8 data bytes, before bit stuffing
+    public static final double kConfigTimeoutSeconds = 0.1;
+
+    // Status frame periods, by how the value is used
+    public static final int kFollowedPeriodMs = 10;     // leader applied output, what followers follow
+    public static final int kControlPeriodMs = 10;      // read by a control loop or estimator every robot loop
+    // Swerve module positions, read by the odometry thread every SwerveConstants.ODOMETRY_PERIOD. Position and
+    // velocity share a SparkMax frame, so this also sets how often module velocities are sent.
+    public static final int kOdometryPeriodMs = (int) Math.round(SwerveConstants.ODOMETRY_PERIOD * 1000);
+    public static final int kTelemetryPeriodMs = 20;    // logged every robot loop
+    public static final int kHealthPeriodMs = 250;      // faults and warnings
+    public static final int kUnusedSparkPeriodMs = 500; // everything nothing reads
+
+    public static final double kPigeonOrientationHz = 100; // YAGSL's own heading reads for odometry
+    public static final double kUnusedPhoenixFrequencyHz = 4; // slowest Phoenix 6 allows without turning off
+  }
+
+  public static class TelemetryConstants {
+    public static final int kMirrorPeriodLoops = 5; // mirror logged values to NetworkTables every 100 ms
+  }
+
   public static class SwerveConstants {
     public static final double MAX_SPEED = Units.feetToMeters(14.5);
     public static final double ROBOT_MASS = Units.lbsToKilograms(125);
-    public static final Matter CHASSIS    = new Matter(new Translation3d(0, 0, Units.inchesToMeters(3.35)), ROBOT_MASS);
-    public static final double LOOP_TIME  = 0.13; //s, 20ms + 110ms sprk max velocity lag
+    public static final double CHASSIS_COG_HEIGHT = Units.inchesToMeters(3.35); // whole robot, elevator stowed
+    public static final Matter CHASSIS    = new Matter(new Translation3d(0, 0, CHASSIS_COG_HEIGHT), ROBOT_MASS);
+    // Split of CHASSIS into the fixed part and the elevator carriage, for the height-aware tip limiter. Neither
+    // part has been measured on its own, so both start at the CHASSIS CoG height: stowed, the total CoG is exactly
+    // CHASSIS's and the limit is the same as before. The carriage CoG then rises with the elevator height.
+    public static final Matter CHASSIS_WITHOUT_CARRIAGE =
+        new Matter(new Translation3d(0, 0, CHASSIS_COG_HEIGHT), ROBOT_MASS - ElevatorConstants.kCarriageMass);
+    public static final double CARRIAGE_COG_HEIGHT = CHASSIS_COG_HEIGHT; // with the elevator at 0
+    // Carriage height is quantized to this before recomputing the CoG, so the Matter list is rebuilt rarely
+    public static final double COG_HEIGHT_BUCKET = 0.05; // m
+    // YAGSL leaves the drive SparkMax velocity filter at its defaults, 8 position deltas each over 32 ms. A reading
+    // describes the middle of that window, plus on average half a status frame of CAN delay (see
+    // ShooterConstants.kVelocityLatencySeconds for the same sum). The velocity rides the odometry position frame.
+    public static final double DRIVE_VELOCITY_LATENCY = (32 * 8 / 2.0 + CanConstants.kOdometryPeriodMs / 2.0) / 1000;
+    // How stale the measured field velocity the tip limiter starts from can be: one robot loop plus the lag above
+    public static final double LOOP_TIME  = TimedRobot.kDefaultPeriod + DRIVE_VELOCITY_LATENCY; //s
+    public static final double ODOMETRY_PERIOD = 0.004; //s, 250 Hz odometry thread
+    public static final double GYRO_SAMPLE_HZ = 100; // GyroSampler rate for vision and logging
+    public static final double GYRO_HISTORY_SECONDS = 0.5; // yaw rate kept to look up at vision timestamps
     
     
   }
 
   public static class VisionConstants {
+    public static final boolean kUseVision = false; //TODO: change once limelight is reattached
+    public static final boolean kUseVisionInSim = true; // runs SimulatedLimelight in place of the cameras
+    public static final String kCameraConfigFile = "vision/cameras.json"; // relative to the deploy directory
+
+    // Default camera, matches the "limelight" entry in deploy/vision/cameras.json. Also used when that file
+    // can't be read.
+    public static final String kDefaultCameraName = "limelight";
     public static final Pose3d LIMELIGHT_POSE = new Pose3d(0.0,
                                                             -0.2744,
                                                             0.2286,
                                                             new Rotation3d(Units.degreesToRadians(0), Units.degreesToRadians(32.005), Units.degreesToRadians(90)));
+    public static final int kEstimateQueueCapacity = 8; // estimates buffered between robot loops
+
+    // Trust model, see VisionTrustModel
+    public static final double kBaseXYStdDev = 0.05; // m, at 1 m from a single unambiguous tag
+    public static final double kMinXYStdDev = 0.02; // m
+    public static final double kAmbiguityStdDevScale = 4.0;
+    public static final double kMegaTag2ThetaStdDev = 9999999; // heading comes from the gyro
+    public static final double kFieldMarginMeters = 0.5;
+    public static final double kMaxZErrorMeters = 0.5;
+    public static final double kMaxTagDistanceMeters = 4.0;
+    public static final double kMaxSingleTagAmbiguity = 0.3;
+    public static final double kMaxYawRateDegPerSec = 720;
+    public static final double kMaxJumpMeters = 1.0;
+    public static final int kMaxConsecutiveJumps = 10; // after this many, trust vision over odometry
+
+    // Simulated cameras, see SimulatedLimelight
+    public static final double kSimLatencyMs = 35;
+    public static final double kSimNoisePerMeter = 0.02; // m of XY noise per m of tag distance
+    public static final double kSimDropoutProbability = 0.1;
+    public static final double kSimHorizontalFOVDeg = 62.5; // Limelight 3
+    public static final double kSimVerticalFOVDeg = 48.9;
+    public static final double kSimMaxRangeMeters = 5.0;
+    public static final double kSimTagAreaAtOneMeter = 0.004; // fraction of the image
+    public static final double kSimSingleTagAmbiguity = 0.1;
+
+    // Vision counts as locked (e.g. for the LEDs) while an estimate was accepted this recently
+    public static final double kLockedTimeoutSeconds = 0.5;
+  }
+
+  public static class LEDConstants {
+    public static final double kBlinkSeconds = 0.1; // on and off time of blinking animations
   }
 
   public static class MotorLimit {
@@ -98,6 +183,10 @@ public final class Constants {
   public static class ElevatorConstants {
     public static final int kBackMotorPort = 30;
     public static final int kFrontMotorPort = 31;
+    // Elevator LaserCAN. Off until it's on the robot with its CAN ID in kLaserCANPort; while off, the height is the
+    // encoders alone, counted from where the elevator was at power-up.
+    public static final boolean kUseLaserCAN = false;
+    public static final int kLaserCANPort = 37;
 
     public static final double kElevatorKp = 22.107;//17.488;//29.588;//38.009;//16.128;//24.426;//41.787;//18;//18;//8.359375;//25//10;//30;//26.722;;//16;
     public static final double kElevatorKi = 0;
@@ -118,11 +207,33 @@ public final class Constants {
     public static final double kElevatorLowerPitch = Units.inchesToMeters(0.25);
     public static final double kElevatorLowerDrumRadius = (kElevatorLowerSprocketTeeth * kElevatorLowerPitch) / (2 * Math.PI);
 
+    // Gains written by ./gradlew fitElevatorGains, relative to the deploy directory. Overrides the gains above.
+    public static final String kGainsFile = "elevator/gains.json";
+
     public static final double kCarriageMass = 18.1; // kg
+    public static final double kCoralMass = 0.7; // kg, roughly one coral
+
+    // Feedforward table, one {heightMeters, kS, kG, kV, kA} row per SysId run, interpolated by height in between.
+    // Until runs exist at each stage, every row holds the full-range SysId gains above, so nothing actually varies
+    // with height yet. The coral rows are not measured either: they're the same rows with kG scaled by the added
+    // mass. Replace both with real per-stage, per-load SysId runs before relying on the table.
+    public static final double[][] kFeedforwardTableEmpty = {
+      {0.00, kElevatorkS, kElevatorkG, kElevatorkV, kElevatorkA},
+      {0.55, kElevatorkS, kElevatorkG, kElevatorkV, kElevatorkA},
+      {1.10, kElevatorkS, kElevatorkG, kElevatorkV, kElevatorkA},
+      {1.64, kElevatorkS, kElevatorkG, kElevatorkV, kElevatorkA},
+    };
+    public static final double[][] kFeedforwardTableCoral = {
+      {0.00, kElevatorkS, kElevatorkG * (kCarriageMass + kCoralMass) / kCarriageMass, kElevatorkV, kElevatorkA},
+      {0.55, kElevatorkS, kElevatorkG * (kCarriageMass + kCoralMass) / kCarriageMass, kElevatorkV, kElevatorkA},
+      {1.10, kElevatorkS, kElevatorkG * (kCarriageMass + kCoralMass) / kCarriageMass, kElevatorkV, kElevatorkA},
+      {1.64, kElevatorkS, kElevatorkG * (kCarriageMass + kCoralMass) / kCarriageMass, kElevatorkV, kElevatorkA},
+    };
 
     // Encoder is reset to measure 0 at the bottom, so minimum height is 0.
     public static final Distance kLaserCANOffset    = Inches.of(3);
     public static final Distance kStartingHeightSim = Meters.of(0);
+    public static final double kSimLoopPeriod = 0.020; // s
     public static final Distance kMinElevatorHeight = Meters.of(0.0);
     public static final Distance kMaxElevatorHeight = Meters.of(1.64); //1.6764//1.1176
 
@@ -132,6 +243,36 @@ public final class Constants {
     public static double kMaxVelocity = Meters.of(0.25).per(Second).in(MetersPerSecond); //0.75//2.5 //0.5
     public static double kMaxAcceleration = Meters.of(0.25).per(Second).per(Second).in(MetersPerSecondPerSecond); //1.5//2
 
+    public enum ControlMode {
+      RIO_PROFILED_PID, // ProfiledPIDController + ElevatorFeedforward on the RIO at 50 Hz
+      SPARK_MAXMOTION,  // MAXMotion trapezoid profile + PID on the back SparkMax at 1 kHz, kG as arbitrary feedforward
+      RIO_SCURVE        // Jerk-limited profile planned from the motor model and battery voltage, PID + feedforward on the RIO
+    }
+
+    // MAXMotion and the S-curve are opt-in until they've been validated on the robot
+    public static ControlMode kControlMode = ControlMode.RIO_PROFILED_PID;
+
+    // MAXMotion limits. Start at the RIO-side limits and only raise them once MAXMotion is validated.
+    public static double kMaxMotionVelocity = Meters.of(0.25).per(Second).in(MetersPerSecond);
+    public static double kMaxMotionAcceleration = Meters.of(0.25).per(Second).per(Second).in(MetersPerSecondPerSecond);
+    public static double kMaxMotionAllowedError = Meters.of(0.01).in(Meters);
+    public static double kSparkLoopPeriod = 0.001; // s, SparkMax closed loop runs at 1 kHz
+    public static double kSparkMaxOutput = 0.25; // duty cycle, about the RIO loop's 3 V at 12 V
+
+    // S-curve limits. Velocity and acceleration come from the motor model at the current battery voltage, scaled
+    // down by these fractions for margin, and capped by the absolute limits.
+    public static double kSCurveVelocityFraction = 0.8;
+    public static double kSCurveAccelerationFraction = 0.7;
+    public static double kSCurveMaxVelocity = 2.0; // m/s
+    public static double kSCurveMaxAcceleration = 4.0; // m/s^2
+    public static double kSCurveMaxJerk = 20.0; // m/s^3
+    public static double kSCurveMaxVolts = 10.0;
+    // Profiles are cached per preset pair and per battery voltage bucket of this size. Planning voltage is clamped
+    // to this range, so the cache has a fixed number of buckets.
+    public static double kSCurveVoltageBucket = 0.5; // V
+    public static double kSCurveMinPlanningVolts = 9.0;
+    public static double kSCurveMaxPlanningVolts = 13.0;
+
 
     public enum Heights {
       L1, L2, L3, L4, REST, HPS
@@ -145,6 +286,23 @@ public final class Constants {
     public static double kHumanPlayerStation = 0.035;
 
     public static final double kSafetyHeight = 0.25;
+
+    public static final double kAtHeightTolerance = 0.02; // m
+
+    // Height estimator: Kalman filter over one NEO encoder and the LaserCAN. The encoders ride the same chain, so
+    // only one is fused at a time; the other is only used to catch slip.
+    public static final double kEstimatorAccelStdDev = 5.0; // m/s^2, unmodeled acceleration
+    public static final double kEncoderStdDev = 0.002; // m
+    public static final double kLaserCANStdDev = 0.02; // m
+    // Warn if the LaserCAN hasn't given a valid reading this long after startup
+    public static final double kLaserCANSeedTimeoutSeconds = 5.0;
+    // Encoders further apart than this have slipped relative to each other
+    public static final double kEncoderDisagreement = 0.02; // m
+    // LaserCAN further than this from the estimate for kSlipSamples loops in a row means the chain has slipped
+    public static final double kSlipThreshold = 0.05; // m
+    public static final int kSlipSamples = 10;
+    // Only re-seed from the LaserCAN when the carriage is nearly still, since its reading lags
+    public static final double kReseedMaxVelocity = 0.05; // m/s
   }
 
   public static class ShooterConstants {
@@ -153,6 +311,10 @@ public final class Constants {
     public static final int kShooterMotorPort = 35;
 
     public static final int kSensorDistance = 65; //in mm
+    // Coral has to move this much further than kSensorDistance away before it counts as gone
+    public static final int kSensorHysteresisMm = 10;
+    // Coral has to be seen (or not) for this long before hasCoral() changes, about two LaserCan samples
+    public static final double kCoralDebounceSeconds = 0.04;
 
     public static double kFlywheelGearing = 4.0;
 
@@ -165,6 +327,7 @@ public final class Constants {
 
     public static double kMaxVoltage = 12.0;
 
+    // Speeds below are motor RPM, as the encoder reads them, not flywheel RPM
     public static int kSpunUpRPM = 5500/4;
 
     public static int kIntakeSpeed = 500;//375*2;
@@ -173,6 +336,44 @@ public final class Constants {
 
     public static int kL24Speed = 250*2;
 
+    public static final double kWheelDiameterMeters = Units.inchesToMeters(4);
+
+    public enum ControlMode {
+      MAIN_LOOP, // Kalman/LQR loop in periodic() at 50 Hz
+      NOTIFIER   // Same loop in its own Notifier at kNotifierPeriod
+    }
+
+    public static ControlMode kControlMode = ControlMode.NOTIFIER;
+
+    public static final double kMainLoopPeriod = 0.020;
+    public static final double kNotifierPeriod = 0.005; // s, 200 Hz
+    // Measured dt above this many periods (first run, long GC pause) is replaced by one nominal period
+    public static final double kMaxLoopDtPeriods = 5;
+
+    // NEO hall sensor velocity filter: the SparkMax averages kVelocityAverageDepth position deltas, each taken over
+    // kVelocityMeasurementPeriodMs. The defaults (32 ms, 8 deep) smooth well but lag by over 100 ms.
+    public static final int kVelocityMeasurementPeriodMs = 16;
+    public static final int kVelocityAverageDepth = 2;
+    public static final int kVelocityFramePeriodMs = 5;
+    // A reading describes the middle of the averaging window, plus on average half a status frame of CAN delay
+    public static final double kVelocityLatencySeconds =
+        (kVelocityMeasurementPeriodMs * kVelocityAverageDepth / 2.0 + kVelocityFramePeriodMs / 2.0) / 1000;
+    public static final double kEstimateHistorySeconds = 0.1;
+
+    // Superstructure: keep spinning this long after the sensor clears so the coral's tail leaves the shooter,
+    // and give up on an eject that hasn't cleared the sensor after the timeout
+    public static final double kEjectSettleSeconds = 0.25;
+    public static final double kEjectTimeoutSeconds = 2.0;
+
+    // Simulation
+    public static final double kSimLoopPeriod = 0.020;
+    public static final double kSimCoralLengthMeters = Units.inchesToMeters(11.875);
+    // Positions along the coral path, measured from the intake mouth
+    public static final double kSimSensorPositionMeters = 0.15;
+    public static final double kSimExitPositionMeters = 0.25;
+    // Simulated LaserCan readings with and without coral over the sensor
+    public static final int kSimCoralDistanceMm = 20;
+    public static final int kSimEmptyDistanceMm = 300;
 
   }
 
@@ -5,11 +5,15 @@
 package frc.robot;
 
 import edu.wpi.first.cameraserver.CameraServer;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.TimedRobot;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import frc.robot.subsystems.LEDSubsystem;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.Telemetry;
 
 /**
  * The methods in this class are called automatically corresponding to each mode, as described in
@@ -22,6 +26,8 @@ public class Robot extends TimedRobot {
   private final RobotContainer m_robotContainer;
 
   public static LEDSubsystem ledSubsystem;
+
+  private final LoopProfiler.Section m_schedulerProfile = LoopProfiler.section("CommandScheduler");
   /**
    * This function is run when the robot is first started up and should be used for any
    * initialization code.
@@ -32,16 +38,27 @@ public class Robot extends TimedRobot {
 
     //CanBridge.runTCP();
 
+    // Start the DataLog before any subsystem registers its telemetry entries
+    DataLogManager.start();
+    DriverStation.startDataLog(DataLogManager.getLog());
+
     m_robotContainer = new RobotContainer();
 
     ledSubsystem = new LEDSubsystem();
+    m_robotContainer.configureLEDs(ledSubsystem);
 
-    CameraServer.startAutomaticCapture();
+    // There's no camera on the desktop, and headless sim runs shouldn't spin up the camera server
+    if (isReal()) {
+      CameraServer.startAutomaticCapture();
+    }
 
     SmartDashboard.putData(CommandScheduler.getInstance());
 
     m_robotContainer.shooterInitCommand().schedule();
 
+    // Bound after all the button bindings so command timing starts once polling is done
+    LoopProfiler.installCommandHooks(CommandScheduler.getInstance());
+
     //m_robotContainer.climberInitCommand().schedule();
   }
 
@@ -58,7 +75,24 @@ public class Robot extends TimedRobot {
     // commands, running already-scheduled commands, removing finished or interrupted commands,
     // and running subsystem periodic() methods.  This must be called from the robot's periodic
     // block in order for anything in the Command-based framework to work.
+    m_schedulerProfile.begin();
     CommandScheduler.getInstance().run();
+    m_schedulerProfile.end();
+
+    LoopProfiler.periodic();
+    Telemetry.periodic();
+  }
+
+  /**
+   * Run exactly one iteration of the robot loop. Used by the headless match runner, which steps the
+   * sim clock itself instead of calling startCompetition().
+   */
+  void stepLoop() {
+    loopFunc();
+  }
+
+  RobotContainer getRobotContainer() {
+    return m_robotContainer;
   }
 
   /** This function is called once each time the robot enters Disabled mode. */
@@ -114,5 +148,7 @@ public class Robot extends TimedRobot {
 
   /** This function is called periodically whilst in simulation. */
   @Override
-  public void simulationPeriodic() {}
+  public void simulationPeriodic() {
+    m_robotContainer.simulationPeriodic();
+  }
 }
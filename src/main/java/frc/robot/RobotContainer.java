@@ -6,12 +6,18 @@ package frc.robot;
 
 import frc.robot.Constants.DriverConstants;
 import frc.robot.Constants.OperatorConstants;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.Constants.ElevatorConstants.Heights;
 //import frc.robot.subsystems.mechanisms.ClimberSubsystem;
+import frc.robot.subsystems.LEDSubsystem;
 import frc.robot.subsystems.mechanisms.ElevatorSubsystem;
 //import frc.robot.subsystems.mechanisms.PivotSubsystem;
 import frc.robot.subsystems.mechanisms.ShooterSubsystem;
+import frc.robot.subsystems.mechanisms.Superstructure;
 //import frc.robot.commands.Autos;
 import frc.robot.subsystems.swerve.SwerveSubsystem;
+import frc.robot.subsystems.vision.Vision;
+import frc.robot.util.CanBandwidthManager;
 import swervelib.SwerveInputStream;
 
 import java.io.File;
@@ -20,19 +26,17 @@ import java.util.function.DoubleSupplier;
 import com.pathplanner.lib.auto.AutoBuilder;
 import com.pathplanner.lib.auto.NamedCommands;
 
+import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.simulation.BatterySim;
+import edu.wpi.first.wpilibj.simulation.RoboRioSim;
 import edu.wpi.first.wpilibj.smartdashboard.SendableChooser;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.InstantCommand;
 import edu.wpi.first.wpilibj2.command.button.CommandXboxController;
 import edu.wpi.first.wpilibj2.command.button.Trigger;
-import frc.robot.commands.combinations.HumanPlayerStationCommand;
-import frc.robot.commands.combinations.L1Command;
-import frc.robot.commands.combinations.L2Command;
-import frc.robot.commands.combinations.L3Command;
-import frc.robot.commands.combinations.L4Command;
-import frc.robot.commands.combinations.RestCommand;
 import frc.robot.commands.mechanisms.elevator.ElevatorDataCommand;
 import frc.robot.commands.mechanisms.elevator.ElevatorTestCommand;
 
@@ -56,6 +60,11 @@ import frc.robot.commands.swerve.FieldOrientedPOVDrive;
 public class RobotContainer {
   // The robot's subsystems and commands are defined here...
   private final SwerveSubsystem drivebase = new SwerveSubsystem(new File(Filesystem.getDeployDirectory(), "swerve"));
+
+  // Registered after the drivebase so its periodic() runs after odometry has been published
+  private final Vision vision = VisionConstants.kUseVision || (RobotBase.isSimulation() && VisionConstants.kUseVisionInSim)
+      ? new Vision(drivebase, new File(Filesystem.getDeployDirectory(), VisionConstants.kCameraConfigFile))
+      : null;
   // Replace with CommandPS4Controller or CommandJoystick if needed
   private final CommandXboxController driverXbox =
       new CommandXboxController(DriverConstants.kDriverControllerPort);
@@ -89,12 +98,8 @@ public class RobotContainer {
 
   private final ElevatorDataCommand elevatorDataCommand = new ElevatorDataCommand(elevatorSubsystem);
 
-  private final L1Command l1Command = new L1Command(elevatorSubsystem);
-  private final L2Command l2Command = new L2Command(elevatorSubsystem);
-  private final L3Command l3Command = new L3Command(elevatorSubsystem);
-  private final L4Command l4Command = new L4Command(elevatorSubsystem);
-  private final RestCommand restCommand = new RestCommand(elevatorSubsystem);
-  private final HumanPlayerStationCommand humanPlayerStationCommand = new HumanPlayerStationCommand(elevatorSubsystem);
+  // Runs the intake -> raise -> eject -> return cycle across the elevator and shooter
+  private final Superstructure superstructure = new Superstructure(elevatorSubsystem, shooterSubsystem);
 
   //private final PivotDataCommand pivotDataCommand = new PivotDataCommand(pivotSubsystem);
 
@@ -136,6 +141,8 @@ public class RobotContainer {
     // Configure the trigger bindings
     configureBindings();
 
+    elevatorSubsystem.setCoralSupplier(shooterSubsystem::hasCoral);
+
     autoChooser = AutoBuilder.buildAutoChooser(); //default auto will be Commands.none();
     SmartDashboard.putData("Auto Chooser", autoChooser);
     
@@ -143,7 +150,8 @@ public class RobotContainer {
     
     //drivebase.setDefaultCommand(new FieldOrientedDrive(driveAngularVelocity));
 
-    
+    // Every subsystem has declared its CAN signals by now
+    CanBandwidthManager.report();
   }
 
   /**
@@ -157,17 +165,20 @@ public class RobotContainer {
    */
 
   private void configureBindings() {
-    driverXbox.a().whileTrue(l1Command);
+    // Levels and score are remembered by the superstructure, so they only need a press, not a hold
+    driverXbox.a().onTrue(superstructure.levelCommand(Heights.L1));
 
-    driverXbox.b().whileTrue(l2Command);
+    driverXbox.b().onTrue(superstructure.levelCommand(Heights.L2));
 
-    driverXbox.x().whileTrue(l3Command);
+    driverXbox.x().onTrue(superstructure.levelCommand(Heights.L3));
 
-    driverXbox.y().whileTrue(l4Command);
+    driverXbox.y().onTrue(superstructure.levelCommand(Heights.L4));
 
-    driverXbox.rightTrigger().whileTrue(humanPlayerStationCommand);
+    driverXbox.rightTrigger().onTrue(superstructure.intakeCommand());
 
-    driverXbox.rightBumper().whileTrue(restCommand);
+    driverXbox.leftTrigger().onTrue(superstructure.scoreCommand());
+
+    driverXbox.rightBumper().onTrue(superstructure.restCommand());
 
     //driverXbox.a().whileTrue(pivot40Command);//pivotTestCommand);
 
@@ -182,8 +193,8 @@ public class RobotContainer {
     //driverXbox.leftBumper().whileTrue(new ClimberInCommand(climberSubsystem));
     //driverXbox.rightBumper().whileTrue(new ClimberOutCommand(climberSubsystem));
     
+    // Manual override for feeding a stuck coral through
     driverXbox.leftBumper().whileTrue(new ShooterIntakeCommand(shooterSubsystem));
-    driverXbox.leftTrigger().whileTrue(new ShooterL24Command(shooterSubsystem));
     
     //driverXbox.x().whileTrue(elevatorSubsystem.runSysIdRoutine());
 
@@ -201,7 +212,8 @@ public class RobotContainer {
                                                                    () -> driverXbox.povUpLeft().getAsBoolean(),
                                                                    () -> driverXbox.getRightX(),
                                                                    () -> driverXbox.getRightY(),
-                                                                   driveDirectAngle);
+                                                                   driveDirectAngle,
+                                                                   elevatorSubsystem::getHeightMeters);
 
     drivebase.setDefaultCommand(fieldOrientedPOVDrive);
 
@@ -228,6 +240,40 @@ public class RobotContainer {
     //m_driverController.b().whileTrue(m_exampleSubsystem.exampleMethodCommand());
   }
 
+  /**
+   * Point the LEDs at the robot state they show.
+   *
+   * @param leds the LED subsystem, created by {@link Robot}
+   */
+  public void configureLEDs(LEDSubsystem leds) {
+    leds.setStateSuppliers(superstructure::isReadyToScore,
+                           shooterSubsystem::hasCoral,
+                           vision != null ? vision::isLocked : () -> false);
+  }
+
+  /**
+   * Update the simulated battery from every simulated mechanism's current draw.
+   */
+  public void simulationPeriodic() {
+    RoboRioSim.setVInVoltage(BatterySim.calculateDefaultBatteryLoadedVoltage(
+        elevatorSubsystem.getSimulatedCurrentDrawAmps(),
+        shooterSubsystem.getSimulatedCurrentDrawAmps()));
+  }
+
+  /**
+   * @return the drivebase's estimated pose
+   */
+  Pose2d getRobotPose() {
+    return drivebase.getPose();
+  }
+
+  /**
+   * @return the simulated drivetrain's actual pose, see {@link SwerveSubsystem#getTruePose()}
+   */
+  Pose2d getRobotTruePose() {
+    return drivebase.getTruePose();
+  }
+
   public Command shooterInitCommand() {
     return new ShooterInitCommand(shooterSubsystem);
   }
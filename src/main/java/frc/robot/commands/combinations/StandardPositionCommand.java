@@ -1,5 +0,0 @@
-package frc.robot.commands.combinations;
-
-public class StandardPositionCommand {
-    
-}
@@ -1,6 +1,5 @@
 package frc.robot.commands.mechanisms.elevator;
 
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import frc.robot.subsystems.mechanisms.ElevatorSubsystem;
 
@@ -17,27 +16,11 @@ public class ElevatorDataCommand extends Command {
     @Override
     public void initialize() {
 
-        SmartDashboard.putNumber("elevatorHeight: ", elevatorSubsystem.getHeightMeters());
-        SmartDashboard.putNumber("elevatorHeightFrontEncoder: ", elevatorSubsystem.getHeightMetersFrontEncoder());
-        SmartDashboard.putNumber("frontMCAppliedOutput: ", elevatorSubsystem.frontMCAppliedOutput());
-        SmartDashboard.putNumber("backMCAppliedOutput: ", elevatorSubsystem.backMCAppliedOutput());
-        
-        
-        
-
-        
     }
 
     @Override
     public void execute() {
-        
-        SmartDashboard.putNumber("elevatorHeight: ", elevatorSubsystem.getHeightMeters());
-        SmartDashboard.putNumber("elevatorHeightFrontEncoder: ", elevatorSubsystem.getHeightMetersFrontEncoder());
-        SmartDashboard.putNumber("frontMCAppliedOutput: ", elevatorSubsystem.frontMCAppliedOutput());
-        SmartDashboard.putNumber("backMCAppliedOutput: ", elevatorSubsystem.backMCAppliedOutput());
-
-        SmartDashboard.putBoolean("Top Trigger", elevatorSubsystem.atMax.getAsBoolean());
-        SmartDashboard.putBoolean("Bottom Trigger", elevatorSubsystem.atMin.getAsBoolean());
+        // Elevator telemetry is logged every loop by ElevatorSubsystem.updateTelemetry()
     }
  
     @Override
@@ -1,6 +1,5 @@
 package frc.robot.commands.mechanisms.elevator;
 
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import frc.robot.subsystems.mechanisms.ElevatorSubsystem;
 
@@ -20,15 +19,7 @@ public class ElevatorTestCommand extends Command {
         /*if (!pivotSubsystem.isEnabled()) {
             pivotSubsystem.enable();
         }*/
-        SmartDashboard.putNumber("elevatorHeight: ", elevatorSubsystem.getHeightMeters());
-        SmartDashboard.putNumber("elevatorHeightFrontEncoder: ", elevatorSubsystem.getHeightMetersFrontEncoder());
-        SmartDashboard.putNumber("frontMCAppliedOutput: ", elevatorSubsystem.frontMCAppliedOutput());
-        SmartDashboard.putNumber("backMCAppliedOutput: ", elevatorSubsystem.backMCAppliedOutput());
-        
-        
-        
 
-        
     }
 
     @Override
@@ -36,20 +27,9 @@ public class ElevatorTestCommand extends Command {
         //System.out.println("position error: " + m_ArmSubsystem.showPositionError());
         
         //elevatorSubsystem.synchronizeEncoders();
-        
-        SmartDashboard.putNumber("elevatorHeight: ", elevatorSubsystem.getHeightMeters());
-        SmartDashboard.putNumber("elevatorHeightFrontEncoder: ", elevatorSubsystem.getHeightMetersFrontEncoder());
-
-        SmartDashboard.putNumber("frontMCAppliedOutput: ", elevatorSubsystem.frontMCAppliedOutput());
-        SmartDashboard.putNumber("backMCAppliedOutput: ", elevatorSubsystem.backMCAppliedOutput());
-
-        SmartDashboard.putBoolean("Top Trigger", elevatorSubsystem.atMax.getAsBoolean());
-        SmartDashboard.putBoolean("Bottom Trigger", elevatorSubsystem.atMin.getAsBoolean());
 
         elevatorSubsystem.reachGoal(0.035); //0.3048
 
-
-
         //pivotSubsystem.reachSetpoint(0.48); //0.48 vertical, 0.386 com at 0 rad
     }
  
@@ -1,43 +1,74 @@
 package frc.robot.commands.swerve;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.BooleanSupplier;
 import java.util.function.DoubleSupplier;
 
 import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.DriverStation.Alliance;
 import edu.wpi.first.wpilibj2.command.Command;
 import frc.robot.Constants;
 import frc.robot.subsystems.swerve.SwerveSubsystem;
-import swervelib.SwerveController;
+import frc.robot.util.Telemetry;
 import swervelib.SwerveInputStream;
+import swervelib.math.Matter;
 import swervelib.math.SwerveMath;
 
 public class FieldOrientedPOVDrive extends Command{
-    
+
+    // Heading vectors (x, y) for each POV direction, in the same order as POV_HEADINGS_RAD below.
+    private static final double[][] POV_VECTORS = {
+        { 0, -1}, // away
+        { 1,  0}, // right
+        {-1,  0}, // left
+        { 0,  1}, // towards
+        { 1, -1}, // away right
+        { 1,  1}, // towards right
+        {-1,  1}, // towards left
+        {-1, -1}  // away left
+    };
+
+    // Target headings precomputed once, using the same atan2(x, y) convention as SwerveController.getJoystickAngle()
+    private static final double[] POV_HEADINGS_RAD = new double[POV_VECTORS.length];
+    static {
+        for (int i = 0; i < POV_VECTORS.length; i++) {
+            POV_HEADINGS_RAD[i] = Math.atan2(POV_VECTORS[i][0], POV_VECTORS[i][1]);
+        }
+    }
+
+    // Fixed chassis mass plus the carriage at its current (quantized) height, rebuilt only when the bucket changes
+    private final List<Matter> chassisMatter = new ArrayList<>(List.of(
+        Constants.SwerveConstants.CHASSIS_WITHOUT_CARRIAGE,
+        new Matter(new Translation3d(0, 0, Constants.SwerveConstants.CARRIAGE_COG_HEIGHT), Constants.ElevatorConstants.kCarriageMass)));
+    private int carriageBucket = 0;
+
+    private final DoubleSupplier elevatorHeight;
+
     private final SwerveSubsystem swerve;
     //private final DoubleSupplier vX, vY;
     //private final DoubleSupplier heading;
-    private final BooleanSupplier lookAway;
-    private final BooleanSupplier lookRight;
-    private final BooleanSupplier lookLeft;
-    private final BooleanSupplier lookTowards;
-    private final BooleanSupplier lookAwayRight;
-    private final BooleanSupplier lookTowardsRight;
-    private final BooleanSupplier lookTowardsLeft;
-    private final BooleanSupplier lookAwayLeft;
-
-    private final DoubleSupplier rightX;
-    private final DoubleSupplier rightY;
+
+    // Same order as POV_VECTORS
+    private final BooleanSupplier[] povButtons;
 
     private final SwerveInputStream inputs;
-    
-        
+
+    // Telemetry channels are registered once so execute() does no NetworkTables lookups or string building
+    private static final Telemetry.StructChannel<Translation2d> limitedTranslationLog =
+        Telemetry.structChannel("LimitedTranslation", Translation2d.struct, true);
+
+    // Heading offset for the alliance-relative input stream, cached when the command starts
+    private double allianceHeadingOffsetRad = 0;
+
+
         //private final Supplier<ChassisSpeeds> velocity;
-        
-    
-    
+
+
+
         public FieldOrientedPOVDrive(SwerveSubsystem swerve,
                                   BooleanSupplier lookAway,
                                   BooleanSupplier lookRight,
@@ -49,112 +80,96 @@ public class FieldOrientedPOVDrive extends Command{
                                   BooleanSupplier lookAwayLeft,
                                   DoubleSupplier rightX,
                                   DoubleSupplier rightY,
-                                  SwerveInputStream inputs
-                                  
+                                  SwerveInputStream inputs,
+                                  DoubleSupplier elevatorHeight
+
                                   //DoubleSupplier heading//,
                                   //DoubleSupplier headingX,
                                   //DoubleSupplier headingY
                                   ) {
                                     this.swerve = swerve;
-                                    this.lookAway = lookAway;
-                                    this.lookRight = lookRight;
-                                    this.lookLeft = lookLeft;
-                                    this.lookTowards = lookTowards;
-                                    this.lookAwayRight = lookAwayRight;
-                                    this.lookTowardsRight = lookTowardsRight;
-                                    this.lookTowardsLeft = lookTowardsLeft;
-                                    this.lookAwayLeft = lookAwayLeft;
-                                    this.rightX = rightX;
-                                    this.rightY = rightY;
-                                    this.inputs = inputs;
-                                    //this.headingX = headingX;
-                                    //this.headingY = headingY;
-                                    
-    
-                                    addRequirements(swerve); 
-    
+                                    this.elevatorHeight = elevatorHeight;
+                                    this.povButtons = new BooleanSupplier[] {lookAway,
+                                                                             lookRight,
+                                                                             lookLeft,
+                                                                             lookTowards,
+                                                                             lookAwayRight,
+                                                                             lookTowardsRight,
+                                                                             lookTowardsLeft,
+                                                                             lookAwayLeft};
+                                    // rightX/rightY are set as the heading axes of our own copy of the stream once, so
+                                    // it's never re-pointed at them (or at constant POV lambdas) each loop, and the
+                                    // caller's stream (shared with other drive commands) is left as it was
+                                    this.inputs = inputs.copy().withControllerHeadingAxis(rightX, rightY).headingWhile(true);
+
+                                    addRequirements(swerve);
+
         }
-    
+
         @Override
         public void initialize() {
             //resetHeading = true;
-            
-            
+
+            // The input stream is alliance relative, so POV headings are flipped on the red side as well
+            allianceHeadingOffsetRad = DriverStation.getAlliance().orElse(Alliance.Blue) == Alliance.Red ? Math.PI : 0;
         }
-    
-        @Override
-        public void execute() {
-    
-            //double headingX = 0;
-            //DoubleSupplier headingXSupplier;
-            //double headingY = 0;
-            //DoubleSupplier headingYSupplier;
-            
-            ChassisSpeeds desiredSpeeds = inputs.get();
 
-            
-    
-            //These allow for 45 degree angle combinations
-            
-     
-            if (lookAway.getAsBoolean()) {
-                desiredSpeeds.omegaRadiansPerSecond = inputs.withControllerHeadingAxis(() -> 0, () -> -1).headingWhile(true).get().omegaRadiansPerSecond;
-            }
-            else if (lookRight.getAsBoolean()) {
-                desiredSpeeds.omegaRadiansPerSecond = inputs.withControllerHeadingAxis(() -> 1, () -> 0).headingWhile(true).get().omegaRadiansPerSecond;
-            }
-            else if (lookLeft.getAsBoolean()) {
-                desiredSpeeds.omegaRadiansPerSecond = inputs.withControllerHeadingAxis(() -> -1, () -> 0).headingWhile(true).get().omegaRadiansPerSecond;
-            }
-            else if (lookTowards.getAsBoolean()) {
-                desiredSpeeds.omegaRadiansPerSecond = inputs.withControllerHeadingAxis(() -> 0, () -> 1).headingWhile(true).get().omegaRadiansPerSecond;
-            }
-            else if (lookAwayRight.getAsBoolean()) {
-                desiredSpeeds.omegaRadiansPerSecond = inputs.withControllerHeadingAxis(() -> 1, () -> -1).headingWhile(true).get().omegaRadiansPerSecond;
-            }
-            else if (lookTowardsRight.getAsBoolean()) {
-                desiredSpeeds.omegaRadiansPerSecond = inputs.withControllerHeadingAxis(() -> 1, () -> 1).headingWhile(true).get().omegaRadiansPerSecond;
-            }
-            else if (lookTowardsLeft.getAsBoolean()) {
-                desiredSpeeds.omegaRadiansPerSecond = inputs.withControllerHeadingAxis(() -> -1, () -> 1).headingWhile(true).get().omegaRadiansPerSecond;
+        /**
+         * Index of the first pressed POV direction, or -1 when none are pressed.
+         */
+        private int pressedPOV() {
+            for (int i = 0; i < povButtons.length; i++) {
+                if (povButtons[i].getAsBoolean()) {
+                    return i;
+                }
             }
-            else if (lookAwayLeft.getAsBoolean()) {
-                desiredSpeeds.omegaRadiansPerSecond = inputs.withControllerHeadingAxis(() -> -1, () -> -1).headingWhile(true).get().omegaRadiansPerSecond;
-            } else {
-                desiredSpeeds.omegaRadiansPerSecond = inputs.withControllerHeadingAxis(rightX, rightY).headingWhile(true).get().omegaRadiansPerSecond;
+            return -1;
+        }
+
+        /**
+         * The Matter the tip limiter sees at an elevator height. The carriage's Matter is only rebuilt when the
+         * height is in a different bucket from last time.
+         */
+        List<Matter> chassisMatterAt(double height) {
+            int bucket = (int) Math.round(height / Constants.SwerveConstants.COG_HEIGHT_BUCKET);
+            if (bucket != carriageBucket) {
+                carriageBucket = bucket;
+                double carriageZ = Constants.SwerveConstants.CARRIAGE_COG_HEIGHT + bucket * Constants.SwerveConstants.COG_HEIGHT_BUCKET;
+                chassisMatter.set(1, new Matter(new Translation3d(0, 0, carriageZ), Constants.ElevatorConstants.kCarriageMass));
             }
+            return chassisMatter;
+        }
 
-        //headingXSupplier = () -> headingX;
-        //headingYSupplier = () -> headingY;
+        /**
+         * The command itself allocates nothing per loop beyond the translation handed to drive(). The library calls
+         * it has to make still do: the input stream returns a new ChassisSpeeds, and the tip limiter builds the
+         * pose, field velocity and limited translation. FieldOrientedPOVDriveTest checks nothing else creeps in.
+         */
+        @Override
+        public void execute() {
 
-        //inputs.withControllerHeadingAxis(headingXSupplier, headingYSupplier);
-        
-        
+            ChassisSpeeds desiredSpeeds = inputs.get();
 
+            //These allow for 45 degree angle combinations
+            int pov = pressedPOV();
+            if (pov >= 0) {
+                desiredSpeeds.omegaRadiansPerSecond = swerve.getSwerveController().headingCalculate(
+                    swerve.getSwerveDrive().getOdometryHeading().getRadians(),
+                    POV_HEADINGS_RAD[pov] + allianceHeadingOffsetRad);
+            }
+            // otherwise the stream has already computed omega from the right stick heading
 
-        /*if (resetHeading) {
-            if (headingX == 0 &&
-                headingY == 0 && 
-                Math.abs(heading.getAsDouble()) == 0) {
-                    Rotation2d currentHeading = swerve.getHeading();
+        Translation2d translation = new Translation2d(desiredSpeeds.vxMetersPerSecond, desiredSpeeds.vyMetersPerSecond);
 
-                    headingX = currentHeading.getCos();
-                    headingY = currentHeading.getSin();
-                }
-                //dont reset heading again
-                resetHeading = false;
-        }*/
-
-        //ChassisSpeeds desiredSpeeds = swerve.getTargetSpeeds(vX.getAsDouble(), vY.getAsDouble(), new Rotation2d(heading.getAsDouble() * Math.PI));
-        //ChassisSpeeds desiredSpeeds = swerve.getTargetSpeeds(inputs.get());
-
-        // Limit velocity to prevent tippy
-        Translation2d translation = SwerveController.getTranslation2d(desiredSpeeds);
-        translation = SwerveMath.limitVelocity(translation, swerve.getFieldVelocity(), swerve.getPose(),
-                                           Constants.SwerveConstants.LOOP_TIME, Constants.SwerveConstants.ROBOT_MASS, List.of(Constants.SwerveConstants.CHASSIS),
-                                           swerve.getSwerveDriveConfiguration());
-        SmartDashboard.putNumber("LimitedTranslation", translation.getX());
-        SmartDashboard.putString("Translation", translation.toString());
+        // Limit velocity to prevent tippy. Runs at every height so the limit tightens smoothly as the carriage
+        // rises; stowed, it's the same limit the whole-robot CHASSIS gave.
+        translation = SwerveMath.limitVelocity(
+            translation,
+            swerve.getFieldVelocity(), swerve.getPose(),
+            Constants.SwerveConstants.LOOP_TIME, Constants.SwerveConstants.ROBOT_MASS,
+            chassisMatterAt(elevatorHeight.getAsDouble()),
+            swerve.getSwerveDriveConfiguration());
+        limitedTranslationLog.set(translation);
 
         // Make the robot move
         swerve.drive(translation, desiredSpeeds.omegaRadiansPerSecond, true);
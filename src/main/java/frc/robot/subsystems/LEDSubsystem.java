@@ -3,16 +3,42 @@ package frc.robot.subsystems;
 import static edu.wpi.first.units.Units.Meters;
 import static edu.wpi.first.units.Units.MetersPerSecond;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
 import edu.wpi.first.units.measure.Distance;
+import edu.wpi.first.units.measure.LinearVelocity;
 import edu.wpi.first.wpilibj.AddressableLED;
 import edu.wpi.first.wpilibj.AddressableLEDBuffer;
 import edu.wpi.first.wpilibj.AddressableLEDBufferView;
 import edu.wpi.first.wpilibj.LEDPattern;
 import edu.wpi.first.wpilibj.LEDPattern.GradientType;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.util.Color;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.Constants.LEDConstants;
+import frc.robot.util.LoopProfiler;
 
+/**
+ * Drives the LED strip from robot state.
+ *
+ * <p>Every animation is rendered once at startup into a cache of frames, one RGB byte array per phase, so the
+ * loop never evaluates an {@link LEDPattern}. Each loop picks the animation from the state suppliers and the
+ * phase from the clock, and only copies the frame into the buffer and calls setData() when either changed.
+ */
 public class LEDSubsystem extends SubsystemBase{
+    /** What the LEDs show, highest priority first. */
+    public enum Animation {
+        READY_TO_SCORE, // elevator at the selected level with coral, blinking green
+        HAS_CORAL,      // coral in the shooter, solid green
+        VISION_LOCKED,  // vision is correcting odometry, solid blue
+        IDLE            // scrolling team red
+    }
+
+    /** Pre-rendered frames for one animation, advanced every phaseSeconds. */
+    private record Frames(byte[][] frames, double phaseSeconds) {}
+
     private final Color titansRed = new Color(255, 1, 2);// 192 35 50     192 35 2
     private final Color titansDark = new Color(255, 0, 1);
     private final Color Black = Color.kBlack;
@@ -27,18 +53,95 @@ public class LEDSubsystem extends SubsystemBase{
     private final LEDPattern m_red = LEDPattern.gradient(GradientType.kContinuous, titansRed, titansLight, titansDark);
     //private final LEDPattern m_red = LEDPattern.solid(titansRed);
     private final Distance kLEDSpacing = Meters.of(1/62.5);
-    private final LEDPattern seizurePattern = m_seizure.scrollAtAbsoluteSpeed(MetersPerSecond.of(5), kLEDSpacing);
-    private final LEDPattern rainbowPattern = m_test.scrollAtAbsoluteSpeed(MetersPerSecond.of(0.75), kLEDSpacing);
-    private final LEDPattern redPattern = m_red.scrollAtAbsoluteSpeed(MetersPerSecond.of(0.75), kLEDSpacing);
+    private final LinearVelocity kScrollSpeed = MetersPerSecond.of(0.75);
+    private final LoopProfiler.Section profile = LoopProfiler.section("LED");
+
+    private final Map<Animation, Frames> cache = new EnumMap<>(Animation.class);
+
+    private BooleanSupplier readyToScore = () -> false;
+    private BooleanSupplier hasCoral = () -> false;
+    private BooleanSupplier visionLocked = () -> false;
+
+    // What's in the LED buffer right now
+    private Animation shownAnimation = null;
+    private int shownPhase = -1;
+
     public LEDSubsystem() {
+        // Every phase of the gradient scroll, one LED apart, at the speed the old scrolling pattern ran
+        int viewLength = m_frontLedBufferView.getLength();
+        byte[][] idle = new byte[viewLength][];
+        for (int phase = 0; phase < viewLength; phase++) {
+            idle[phase] = render(m_red.offsetBy(phase));
+        }
+        cache.put(Animation.IDLE, new Frames(idle, kLEDSpacing.in(Meters) / kScrollSpeed.in(MetersPerSecond)));
+
+        cache.put(Animation.READY_TO_SCORE, new Frames(new byte[][] {render(LEDPattern.solid(Color.kGreen)),
+                                                                     render(LEDPattern.kOff)},
+                                                       LEDConstants.kBlinkSeconds));
+        cache.put(Animation.HAS_CORAL, new Frames(new byte[][] {render(LEDPattern.solid(Color.kGreen))}, 1));
+        cache.put(Animation.VISION_LOCKED, new Frames(new byte[][] {render(LEDPattern.solid(Color.kBlue))}, 1));
+
         m_led.setLength(m_ledBuffer.getLength());
         m_led.setData(m_ledBuffer);
         m_led.start();
     }
+
+    /**
+     * Set the robot state the LEDs follow. Each supplier is called once per loop.
+     *
+     * @param readyToScore true when the elevator is at the selected level with coral
+     * @param hasCoral     true while the shooter holds coral
+     * @param visionLocked true while vision is being fused into odometry
+     */
+    public void setStateSuppliers(BooleanSupplier readyToScore, BooleanSupplier hasCoral, BooleanSupplier visionLocked) {
+        this.readyToScore = readyToScore;
+        this.hasCoral = hasCoral;
+        this.visionLocked = visionLocked;
+    }
+
+    /**
+     * Apply a pattern to both sides of the strip and copy the result out as RGB bytes.
+     */
+    private byte[] render(LEDPattern pattern) {
+        pattern.applyTo(m_frontLedBufferView);
+        pattern.applyTo(m_backLedBufferView);
+        byte[] frame = new byte[m_ledBuffer.getLength() * 3];
+        for (int i = 0; i < m_ledBuffer.getLength(); i++) {
+            frame[3 * i] = (byte) m_ledBuffer.getRed(i);
+            frame[3 * i + 1] = (byte) m_ledBuffer.getGreen(i);
+            frame[3 * i + 2] = (byte) m_ledBuffer.getBlue(i);
+        }
+        return frame;
+    }
+
+    private Animation selectAnimation() {
+        if (readyToScore.getAsBoolean()) {
+            return Animation.READY_TO_SCORE;
+        }
+        if (hasCoral.getAsBoolean()) {
+            return Animation.HAS_CORAL;
+        }
+        if (visionLocked.getAsBoolean()) {
+            return Animation.VISION_LOCKED;
+        }
+        return Animation.IDLE;
+    }
+
     @Override
     public void periodic() {
-        redPattern.applyTo(m_frontLedBufferView);
-        redPattern.applyTo(m_backLedBufferView);
-        m_led.setData(m_ledBuffer);
+        profile.begin();
+        Animation animation = selectAnimation();
+        Frames frames = cache.get(animation);
+        int phase = (int) (Timer.getFPGATimestamp() / frames.phaseSeconds()) % frames.frames().length;
+        if (animation != shownAnimation || phase != shownPhase) {
+            byte[] frame = frames.frames()[phase];
+            for (int i = 0; i < m_ledBuffer.getLength(); i++) {
+                m_ledBuffer.setRGB(i, frame[3 * i] & 0xFF, frame[3 * i + 1] & 0xFF, frame[3 * i + 2] & 0xFF);
+            }
+            m_led.setData(m_ledBuffer);
+            shownAnimation = animation;
+            shownPhase = phase;
+        }
+        profile.end();
     }
 }
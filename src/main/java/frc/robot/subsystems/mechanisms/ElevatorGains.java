@@ -0,0 +1,87 @@
+package frc.robot.subsystems.mechanisms;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.DriverStation;
+import frc.robot.Constants.ElevatorConstants;
+
+/**
+ * Elevator gains from deploy/elevator/gains.json, written by the SysId fitting tool (./gradlew fitElevatorGains).
+ * Feedforward gains are in volts, volts per m/s and volts per m/s^2; PID gains in volts per meter of error.
+ * If the file is missing or unreadable the gains in {@link ElevatorConstants} are used instead.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ElevatorGains {
+    public int version;
+    public String source = "Constants";
+    public double kS;
+    public double kG;
+    public double kV;
+    public double kA;
+    public double kP;
+    public double kI;
+    public double kD;
+    // {heightMeters, kS, kG, kV, kA} rows with no coral loaded, see ElevatorFeedforwardTable
+    public double[][] feedforwardTable;
+
+    /**
+     * @return the gains hand-entered in {@link ElevatorConstants}
+     */
+    public static ElevatorGains fromConstants() {
+        ElevatorGains gains = new ElevatorGains();
+        gains.kS = ElevatorConstants.kElevatorkS;
+        gains.kG = ElevatorConstants.kElevatorkG;
+        gains.kV = ElevatorConstants.kElevatorkV;
+        gains.kA = ElevatorConstants.kElevatorkA;
+        gains.kP = ElevatorConstants.kElevatorKp;
+        gains.kI = ElevatorConstants.kElevatorKi;
+        gains.kD = ElevatorConstants.kElevatorKd;
+        gains.feedforwardTable = ElevatorConstants.kFeedforwardTableEmpty;
+        return gains;
+    }
+
+    /**
+     * Load the gains file, falling back to {@link #fromConstants()} if it doesn't exist or can't be parsed.
+     *
+     * @param file JSON file, usually deploy/elevator/gains.json
+     * @return gains to run the elevator with
+     */
+    public static ElevatorGains load(File file) {
+        if (!file.exists()) {
+            return fromConstants();
+        }
+        try {
+            ElevatorGains gains = new ObjectMapper().readValue(file, ElevatorGains.class);
+            if (gains.feedforwardTable == null || gains.feedforwardTable.length == 0) {
+                gains.feedforwardTable = new double[][] {{0, gains.kS, gains.kG, gains.kV, gains.kA}};
+            }
+            DataLogManager.log("Elevator gains v" + gains.version + " from " + gains.source);
+            return gains;
+        } catch (IOException e) {
+            DriverStation.reportWarning("Couldn't read " + file + ", using elevator gains from Constants: "
+                                        + e.getMessage(), false);
+            return fromConstants();
+        }
+    }
+
+    /**
+     * @return the feedforward rows with coral loaded. SysId runs are done empty, so kG is scaled by the added mass.
+     */
+    public double[][] coralFeedforwardTable() {
+        if (feedforwardTable == ElevatorConstants.kFeedforwardTableEmpty) {
+            return ElevatorConstants.kFeedforwardTableCoral;
+        }
+        double scale = (ElevatorConstants.kCarriageMass + ElevatorConstants.kCoralMass) / ElevatorConstants.kCarriageMass;
+        double[][] rows = new double[feedforwardTable.length][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = feedforwardTable[i].clone();
+            rows[i][2] *= scale;
+        }
+        return rows;
+    }
+}
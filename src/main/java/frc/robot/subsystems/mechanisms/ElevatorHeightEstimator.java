@@ -0,0 +1,80 @@
+package frc.robot.subsystems.mechanisms;
+
+/**
+ * Kalman filter over elevator height and velocity, fed by any number of height measurements per loop.
+ *
+ * <p>The model is constant velocity with white-noise acceleration. Every sensor measures height directly, so
+ * each measurement is a scalar update and the whole filter is a handful of doubles: no matrices, no
+ * allocation, cheap enough to run every loop.
+ */
+public class ElevatorHeightEstimator {
+    private final double accelVariance;
+
+    private double height;
+    private double velocity;
+    // Covariance [[p00, p01], [p01, p11]]
+    private double p00;
+    private double p01;
+    private double p11;
+
+    /**
+     * @param initialHeight  starting height in meters
+     * @param accelStdDev    process noise, as the std dev of unmodeled acceleration in m/s^2
+     */
+    public ElevatorHeightEstimator(double initialHeight, double accelStdDev) {
+        accelVariance = accelStdDev * accelStdDev;
+        reset(initialHeight);
+    }
+
+    /**
+     * Jump to a known height at rest, e.g. from the LaserCAN.
+     *
+     * @param newHeight height in meters
+     */
+    public void reset(double newHeight) {
+        height = newHeight;
+        velocity = 0;
+        p00 = 1e-4;
+        p01 = 0;
+        p11 = 1e-2;
+    }
+
+    /**
+     * Advance the estimate by dtSeconds.
+     */
+    public void predict(double dtSeconds) {
+        double dt2 = dtSeconds * dtSeconds;
+        height += velocity * dtSeconds;
+        p00 += 2 * dtSeconds * p01 + dt2 * p11 + accelVariance * dt2 * dt2 / 4;
+        p01 += dtSeconds * p11 + accelVariance * dt2 * dtSeconds / 2;
+        p11 += accelVariance * dt2;
+    }
+
+    /**
+     * Fold in one height measurement.
+     *
+     * @param measuredHeight measured height in meters
+     * @param stdDev         measurement std dev in meters
+     * @return innovation (measurement minus the predicted height)
+     */
+    public double correct(double measuredHeight, double stdDev) {
+        double innovation = measuredHeight - height;
+        double s = p00 + stdDev * stdDev;
+        double k0 = p00 / s;
+        double k1 = p01 / s;
+        height += k0 * innovation;
+        velocity += k1 * innovation;
+        p11 -= k1 * p01;
+        p01 *= 1 - k0;
+        p00 *= 1 - k0;
+        return innovation;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public double getVelocity() {
+        return velocity;
+    }
+}
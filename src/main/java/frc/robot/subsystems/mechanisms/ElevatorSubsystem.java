@@ -7,22 +7,34 @@ package frc.robot.subsystems.mechanisms;
 import static edu.wpi.first.units.Units.Inches;
 import static edu.wpi.first.units.Units.Meters;
 import static edu.wpi.first.units.Units.MetersPerSecond;
+import static edu.wpi.first.units.Units.Millimeters;
 import static edu.wpi.first.units.Units.Minute;
 import static edu.wpi.first.units.Units.Rotations;
 import static edu.wpi.first.units.Units.Second;
 import static edu.wpi.first.units.Units.Seconds;
 import static edu.wpi.first.units.Units.Volts;
 
+import java.io.File;
+import java.util.function.BooleanSupplier;
+
+import au.grapplerobotics.LaserCan;
+
 import com.revrobotics.RelativeEncoder;
+import com.revrobotics.spark.ClosedLoopSlot;
+import com.revrobotics.spark.SparkBase.ControlType;
 import com.revrobotics.spark.SparkBase.PersistMode;
 import com.revrobotics.spark.SparkBase.ResetMode;
 import com.revrobotics.spark.SparkLowLevel.MotorType;
 import com.revrobotics.spark.SparkMax;
+import com.revrobotics.spark.SparkClosedLoopController;
+import com.revrobotics.spark.SparkClosedLoopController.ArbFFUnits;
+import com.revrobotics.sim.SparkMaxSim;
 import com.revrobotics.spark.config.ClosedLoopConfig.FeedbackSensor;
 import com.revrobotics.spark.config.SparkMaxConfig;
 import edu.wpi.first.math.MathUtil;
-import edu.wpi.first.math.controller.ElevatorFeedforward;
+import edu.wpi.first.math.controller.PIDController;
 import edu.wpi.first.math.controller.ProfiledPIDController;
+import edu.wpi.first.math.system.plant.DCMotor;
 import edu.wpi.first.math.trajectory.TrapezoidProfile.Constraints;
 import edu.wpi.first.units.measure.Angle;
 import edu.wpi.first.units.measure.Distance;
@@ -31,16 +43,29 @@ import edu.wpi.first.units.measure.MutAngle;
 import edu.wpi.first.units.measure.MutDistance;
 import edu.wpi.first.units.measure.MutLinearVelocity;
 import edu.wpi.first.units.measure.MutVoltage;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.RobotBase;
 import edu.wpi.first.wpilibj.RobotController;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj.TimedRobot;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.simulation.ElevatorSim;
+import edu.wpi.first.wpilibj.simulation.RoboRioSim;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.Commands;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import edu.wpi.first.wpilibj2.command.button.Trigger;
 import edu.wpi.first.wpilibj2.command.sysid.SysIdRoutine;
 import edu.wpi.first.wpilibj2.command.sysid.SysIdRoutine.Direction;
+import frc.robot.Constants.CanConstants;
 import frc.robot.Constants.ElevatorConstants;
 import frc.robot.Constants.ElevatorConstants.Heights;
+import frc.robot.util.CanBandwidthManager;
+import frc.robot.util.CanBandwidthManager.SparkSignal;
+import frc.robot.util.ElevatorFeedforwardTable;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.SCurveProfile;
+import frc.robot.util.Telemetry;
 
 public class ElevatorSubsystem extends SubsystemBase
 {
@@ -52,13 +77,23 @@ public class ElevatorSubsystem extends SubsystemBase
 
   public double desiredHeight = ElevatorConstants.kBottom;
 
+  // Same limits as atMin/atMax, as plain doubles for per-loop telemetry
+  private static final double kMinHeightMeters      = ElevatorConstants.kMinElevatorHeight.in(Meters);
+  private static final double kMaxHeightMeters      = ElevatorConstants.kMaxElevatorHeight.in(Meters);
+  private static final double kLimitToleranceMeters = Inches.of(12).in(Meters);
+
   // Standard classes for controlling our elevator
-  ElevatorFeedforward m_feedforward =
-      new ElevatorFeedforward(
-          ElevatorConstants.kElevatorkS,
-          ElevatorConstants.kElevatorkG,
-          ElevatorConstants.kElevatorkV,
-          ElevatorConstants.kElevatorkA);
+  // Gains fitted from SysId logs, or the ones in ElevatorConstants if there's no gains file
+  private final ElevatorGains m_gains =
+      ElevatorGains.load(new File(Filesystem.getDeployDirectory(), ElevatorConstants.kGainsFile));
+
+  // Feedforward gains by height and coral load, see ElevatorConstants.kFeedforwardTableEmpty
+  private final ElevatorFeedforwardTable m_feedforward =
+      new ElevatorFeedforwardTable(m_gains.feedforwardTable, m_gains.coralFeedforwardTable(),
+                                   TimedRobot.kDefaultPeriod);
+
+  // Whether the shooter is holding coral, set from RobotContainer
+  private BooleanSupplier m_hasCoral = () -> false;
   private final SparkMax m_BackMotor    = new SparkMax(ElevatorConstants.kBackMotorPort, MotorType.kBrushless);
   private final SparkMax m_FrontMotor = new SparkMax(ElevatorConstants.kFrontMotorPort, MotorType.kBrushless);
   
@@ -66,15 +101,60 @@ public class ElevatorSubsystem extends SubsystemBase
 
   private final RelativeEncoder m_FrontEncoder = m_FrontMotor.getEncoder();
 
-  private final ProfiledPIDController m_controller = new ProfiledPIDController(ElevatorConstants.kElevatorKp,
-                                                                               ElevatorConstants.kElevatorKi,
-                                                                               ElevatorConstants.kElevatorKd,
+  private final SparkClosedLoopController m_sparkController = m_BackMotor.getClosedLoopController();
+
+  private final ProfiledPIDController m_controller = new ProfiledPIDController(m_gains.kP,
+                                                                               m_gains.kI,
+                                                                               m_gains.kD,
                                                                                new Constraints(ElevatorConstants.kMaxVelocity,
                                                                                                ElevatorConstants.kMaxAcceleration));
 
-  // Simulation classes help us simulate what's going on, including gravity.
-
+  // RIO_SCURVE mode: feedback around the S-curve setpoint, and the profile being followed
+  private final PIDController            m_sCurveController = new PIDController(m_gains.kP, m_gains.kI, m_gains.kD);
+  // [voltage bucket][from preset][to preset], filled on first use
+  private final SCurveProfile[][][]      m_sCurveCache      =
+      new SCurveProfile[voltageBuckets()][Heights.values().length][Heights.values().length];
+  private final Timer                    m_sCurveTimer      = new Timer();
+  private       SCurveProfile            m_sCurveProfile;
+  private       double                   m_sCurveGoal       = Double.NaN;
+  // Preset the desiredHeight came from, so preset-to-preset moves can use a cached profile
+  private       Heights                  m_desiredPreset    = Heights.REST;
+
+  // Absolute height from the LaserCAN, fused with the encoders, see updateHeightEstimate(). Null when
+  // kUseLaserCAN is off, and the encoders count from power-up as if seeded at 0.
+  private final LaserCan                m_elevatorLaserCan =
+      ElevatorConstants.kUseLaserCAN ? new LaserCan(ElevatorConstants.kLaserCANPort) : null;
+  private final ElevatorHeightEstimator m_heightEstimator  =
+      new ElevatorHeightEstimator(0, ElevatorConstants.kEstimatorAccelStdDev);
+  private       boolean                 m_seeded           = !ElevatorConstants.kUseLaserCAN;
+  private final Timer                   m_seedTimer        = new Timer();
+  private       boolean                 m_seedWarned       = false;
+  private       int                     m_slipSamples      = 0;
+  private       int                     m_reseedCount      = 0;
+
+  private final LoopProfiler.Section m_profile = LoopProfiler.section("Elevator");
+
+  // Telemetry channels, registered once so per-loop logging doesn't look up keys
+  private final Telemetry.DoubleChannel  m_pidVoltageLog         = Telemetry.doubleChannel("elevatorPIDVoltage: ", true);
+  private final Telemetry.DoubleChannel  m_feedforwardVoltageLog = Telemetry.doubleChannel("elevatorFeedforwardVoltage: ", true);
+  private final Telemetry.DoubleChannel  m_totalVoltageLog       = Telemetry.doubleChannel("elevatorTotalVoltage: ", true);
+  private final Telemetry.DoubleChannel  m_heightLog             = Telemetry.doubleChannel("elevatorHeight: ", true);
+  private final Telemetry.DoubleChannel  m_frontHeightLog        = Telemetry.doubleChannel("elevatorHeightFrontEncoder: ", true);
+  private final Telemetry.DoubleChannel  m_frontOutputLog        = Telemetry.doubleChannel("frontMCAppliedOutput: ", true);
+  private final Telemetry.DoubleChannel  m_backOutputLog         = Telemetry.doubleChannel("backMCAppliedOutput: ", true);
+  private final Telemetry.BooleanChannel m_atMaxLog              = Telemetry.booleanChannel("Top Trigger", true);
+  private final Telemetry.BooleanChannel m_atMinLog              = Telemetry.booleanChannel("Bottom Trigger", true);
+  private final Telemetry.DoubleChannel  m_estimatedHeightLog    = Telemetry.doubleChannel("elevatorEstimatedHeight: ", true);
+  private final Telemetry.BooleanChannel m_encoderSlipLog        = Telemetry.booleanChannel("Elevator Encoder Disagreement", true);
+  private final Telemetry.BooleanChannel m_chainSlipLog          = Telemetry.booleanChannel("Elevator Chain Slip", true);
+  private final Telemetry.DoubleChannel  m_reseedCountLog        = Telemetry.doubleChannel("Elevator Reseeds", true);
 
+  // Simulation classes help us simulate what's going on, including gravity.
+  // Only created in simulation, see simulationStep().
+  private final DCMotor     m_elevatorGearbox = DCMotor.getNEO(2);
+  private       SparkMaxSim m_BackMotorSim;
+  private       SparkMaxSim m_FrontMotorSim;
+  private       ElevatorSim m_elevatorSim;
 
   // SysId Routine and seutp
   // Mutable holder for unit-safe voltage values, persisted to avoid reallocation.
@@ -102,8 +182,8 @@ public class ElevatorSubsystem extends SubsystemBase
                    .voltage(
                        m_appliedVoltage.mut_replace(
                            m_BackMotor.getAppliedOutput() * RobotController.getBatteryVoltage(), Volts))
-                   .linearPosition(m_distance.mut_replace(getHeightMeters(),
-                                                          Meters)) // Records Height in Meters via SysIdRoutineLog.linearPosition
+                   .linearPosition(m_distance.mut_replace(getBackEncoderHeightMeters(),
+                                                          Meters)) // Records the raw encoder height, not the fused estimate
                    .linearVelocity(m_velocity.mut_replace(getVelocityMetersPerSecond(),
                                                           MetersPerSecond)); // Records velocity in MetersPerSecond via SysIdRoutineLog.linearVelocity
               },
@@ -122,11 +202,44 @@ public class ElevatorSubsystem extends SubsystemBase
         .closedLoopRampRate(ElevatorConstants.kElevatorRampRate)
         .closedLoop
         .feedbackSensor(FeedbackSensor.kPrimaryEncoder)
-        .outputRange(-1, 1);
-        
+        // Same authority as the RIO loop's +/-3 V clamp, so MAXMotion can't drive the carriage harder
+        .outputRange(-ElevatorConstants.kSparkMaxOutput, ElevatorConstants.kSparkMaxOutput);
+
+    // The SparkMax works in motor rotations and duty cycle, so the RIO gains (volts per meter) are converted here.
+    // kG is left out; it's sent as an arbitrary feedforward in volts with every setpoint.
+    double metersPerRotation = convertRotationsToDistance(Rotations.of(1)).in(Meters);
+    double nominalVoltage = 12.0;
+    config.closedLoop
+        .pid(m_gains.kP * metersPerRotation / nominalVoltage,
+             m_gains.kI * metersPerRotation / nominalVoltage,
+             // SparkMax derivative is per 1 ms loop, not per second
+             m_gains.kD * metersPerRotation / nominalVoltage / ElevatorConstants.kSparkLoopPeriod)
+        // MAXMotion applies velocityFF to the profiled velocity; duty cycle per RPM
+        .velocityFF(m_gains.kV * metersPerRotation / 60 / nominalVoltage);
+    config.closedLoop.maxMotion
+        .maxVelocity(convertDistanceToRotations(Meters.of(ElevatorConstants.kMaxMotionVelocity)).in(Rotations) * 60)
+        .maxAcceleration(convertDistanceToRotations(Meters.of(ElevatorConstants.kMaxMotionAcceleration)).in(Rotations) * 60)
+        .allowedClosedLoopError(convertDistanceToRotations(Meters.of(ElevatorConstants.kMaxMotionAllowedError)).in(Rotations));
+
+    // Both encoders feed the height estimate every loop, and the front motor follows the back one's applied output
+    CanBandwidthManager.spark("Elevator Back", ElevatorConstants.kBackMotorPort)
+        .consume(SparkSignal.APPLIED_OUTPUT, CanConstants.kFollowedPeriodMs)
+        .consume(SparkSignal.BUS_VOLTAGE, CanConstants.kTelemetryPeriodMs)
+        .consume(SparkSignal.PRIMARY_POSITION, CanConstants.kControlPeriodMs)
+        .consume(SparkSignal.PRIMARY_VELOCITY, CanConstants.kControlPeriodMs)
+        .consume(SparkSignal.FAULTS, CanConstants.kHealthPeriodMs)
+        .consume(SparkSignal.WARNINGS, CanConstants.kHealthPeriodMs)
+        .applyTo(config);
+
     m_BackMotor.configure(config, ResetMode.kNoResetSafeParameters, PersistMode.kPersistParameters);
 
     frontFollowerConfig.apply(config).follow(m_BackMotor);
+    CanBandwidthManager.spark("Elevator Front", ElevatorConstants.kFrontMotorPort)
+        .consume(SparkSignal.APPLIED_OUTPUT, CanConstants.kTelemetryPeriodMs)
+        .consume(SparkSignal.PRIMARY_POSITION, CanConstants.kControlPeriodMs)
+        .consume(SparkSignal.FAULTS, CanConstants.kHealthPeriodMs)
+        .consume(SparkSignal.WARNINGS, CanConstants.kHealthPeriodMs)
+        .applyTo(frontFollowerConfig);
 
     m_FrontMotor.configure(frontFollowerConfig, ResetMode.kNoResetSafeParameters, PersistMode.kPersistParameters);
 
@@ -138,20 +251,143 @@ public class ElevatorSubsystem extends SubsystemBase
       m_limitSwitchLowSim = new DIOSim(m_limitSwitchLow);
       SmartDashboard.putData("Elevator Low Limit Switch", m_limitSwitchLow);
     }*/
-    //seedElevatorMotorPosition();
+    // Encoders are seeded from the first LaserCAN reading, see updateHeightEstimate()
+    m_seedTimer.start();
+
+    if (RobotBase.isSimulation())
+    {
+      m_BackMotorSim = new SparkMaxSim(m_BackMotor, m_elevatorGearbox);
+      m_FrontMotorSim = new SparkMaxSim(m_FrontMotor, m_elevatorGearbox);
+      m_elevatorSim = new ElevatorSim(m_elevatorGearbox,
+                                      ElevatorConstants.kElevatorGearing,
+                                      ElevatorConstants.kCarriageMass,
+                                      ElevatorConstants.kElevatorLowerDrumRadius,
+                                      ElevatorConstants.kMinElevatorHeight.in(Meters),
+                                      ElevatorConstants.kMaxElevatorHeight.in(Meters),
+                                      true,
+                                      ElevatorConstants.kStartingHeightSim.in(Meters));
+    }
+
+    // Plan every preset-to-preset move up front at the current battery voltage
+    if (ElevatorConstants.kControlMode == ElevatorConstants.ControlMode.RIO_SCURVE)
+    {
+      int bucket = voltageBucket();
+      for (Heights from : Heights.values())
+      {
+        for (Heights to : Heights.values())
+        {
+          cachedSCurve(from, to, bucket);
+        }
+      }
+    }
   }
 
   /**
    * Seed the elevator motor encoder with the sensed position from the LaserCAN which tells us the height of the
    * elevator.
+   *
+   * @param heightMeters height the LaserCAN measured
+   */
+  public void seedElevatorMotorPosition(double heightMeters)
+  {
+    double rotations = convertDistanceToRotations(Meters.of(heightMeters)).in(Rotations);
+    m_BackEncoder.setPosition(rotations);
+    m_FrontEncoder.setPosition(rotations);
+    m_heightEstimator.reset(heightMeters);
+  }
+
+  /**
+   * Read the elevator LaserCAN, or the simulated carriage when running in simulation.
+   *
+   * @return height in meters, or NaN if there is no valid measurement or kUseLaserCAN is off
    */
-  /*public void seedElevatorMotorPosition()
+  private double sampleLaserCanHeight()
   {
-    
-      m_encoder.setPosition(convertDistanceToRotations(Millimeters.of(
-                                        m_elevatorLaserCan.getMeasurement().distance_mm + ElevatorConstants.kLaserCANOffset.in(Millimeters)))
-                                    .in(Rotations));
-  }*/
+    if (!ElevatorConstants.kUseLaserCAN)
+    {
+      return Double.NaN;
+    }
+    if (m_elevatorSim != null)
+    {
+      return m_elevatorSim.getPositionMeters();
+    }
+    LaserCan.Measurement measurement = m_elevatorLaserCan.getMeasurement();
+    if (measurement == null || measurement.status != LaserCan.LASERCAN_STATUS_VALID_MEASUREMENT)
+    {
+      return Double.NaN;
+    }
+    return Millimeters.of(measurement.distance_mm).plus(ElevatorConstants.kLaserCANOffset).in(Meters);
+  }
+
+  /**
+   * Fuse an encoder and the LaserCAN into the height estimate, and re-seed the encoders if they've slipped.
+   * Both encoders measure the same chain, so their errors aren't independent and only one is fused: the back
+   * (leader) encoder while they agree, otherwise whichever one the LaserCAN agrees with.
+   */
+  private void updateHeightEstimate()
+  {
+    double back = getBackEncoderHeightMeters();
+    double front = getHeightMetersFrontEncoder();
+    double laser = sampleLaserCanHeight();
+
+    if (!m_seeded)
+    {
+      // First LaserCAN reading replaces whatever the encoders powered up with
+      if (!Double.isNaN(laser))
+      {
+        seedElevatorMotorPosition(laser);
+        m_seeded = true;
+      }
+      else if (!m_seedWarned && m_seedTimer.hasElapsed(ElevatorConstants.kLaserCANSeedTimeoutSeconds))
+      {
+        DriverStation.reportWarning("Elevator LaserCAN has not given a valid reading, height is from the back " +
+                                    "encoder alone and may be wrong", false);
+        m_seedWarned = true;
+      }
+      return;
+    }
+
+    m_heightEstimator.predict(m_controller.getPeriod());
+
+    boolean encodersAgree = Math.abs(back - front) < ElevatorConstants.kEncoderDisagreement;
+    if (encodersAgree)
+    {
+      m_heightEstimator.correct(back, ElevatorConstants.kEncoderStdDev);
+    }
+    else if (!Double.isNaN(laser))
+    {
+      // Trust whichever encoder the LaserCAN agrees with
+      m_heightEstimator.correct(Math.abs(back - laser) < Math.abs(front - laser) ? back : front,
+                                ElevatorConstants.kEncoderStdDev);
+    }
+    m_encoderSlipLog.set(!encodersAgree);
+
+    boolean slipping = false;
+    if (!Double.isNaN(laser))
+    {
+      if (Math.abs(laser - m_heightEstimator.getHeight()) > ElevatorConstants.kSlipThreshold)
+      {
+        m_slipSamples++;
+        slipping = m_slipSamples >= ElevatorConstants.kSlipSamples;
+      }
+      else
+      {
+        m_slipSamples = 0;
+        m_heightEstimator.correct(laser, ElevatorConstants.kLaserCANStdDev);
+      }
+    }
+    m_chainSlipLog.set(slipping);
+
+    if ((slipping || !encodersAgree) && !Double.isNaN(laser)
+        && Math.abs(m_heightEstimator.getVelocity()) < ElevatorConstants.kReseedMaxVelocity)
+    {
+      seedElevatorMotorPosition(laser);
+      m_slipSamples = 0;
+      m_reseedCount++;
+      m_reseedCountLog.set(m_reseedCount);
+    }
+    m_estimatedHeightLog.set(m_heightEstimator.getHeight());
+  }
 
   /**
    * Run control loop to reach and maintain goal.
@@ -160,16 +396,186 @@ public class ElevatorSubsystem extends SubsystemBase
    */
   public void reachGoal(double goal)
   {
-    double voltsOut = MathUtil.clamp(
-        m_controller.calculate(getHeightMeters(), goal) +
-        m_feedforward.calculateWithVelocities(getVelocityMetersPerSecond(),
-                                              m_controller.getSetpoint().velocity), -3, 3);
-    m_BackMotor.setVoltage(voltsOut);
+    switch (ElevatorConstants.kControlMode)
+    {
+      case SPARK_MAXMOTION:
+        reachGoalMaxMotion(goal);
+        break;
+      case RIO_SCURVE:
+        m_BackMotor.setVoltage(calculateSCurveVoltage(goal));
+        break;
+      case RIO_PROFILED_PID:
+      default:
+        m_BackMotor.setVoltage(calculateVoltage(goal));
+        break;
+    }
+  }
 
-    SmartDashboard.putNumber("elevatorPIDVoltage: ", m_controller.calculate(getHeightMeters(), goal));
-    SmartDashboard.putNumber("elevatorFeedforwardVoltage: ", (m_feedforward.calculateWithVelocities(getVelocityMetersPerSecond(),
-    m_controller.getSetpoint().velocity)));
-    SmartDashboard.putNumber("elevatorTotalVoltage: ", voltsOut);
+  /**
+   * Hand the goal to the SparkMax's MAXMotion controller, which profiles and closes the loop on the motor
+   * controller. kG is added as an arbitrary feedforward since the SparkMax has no gravity term.
+   *
+   * @param goal the position to maintain
+   */
+  private void reachGoalMaxMotion(double goal)
+  {
+    m_sparkController.setReference(convertDistanceToRotations(Meters.of(goal)).in(Rotations),
+                                   ControlType.kMAXMotionPositionControl,
+                                   ClosedLoopSlot.kSlot0,
+                                   m_feedforward.getKG(getHeightMeters(), m_hasCoral.getAsBoolean()),
+                                   ArbFFUnits.kVoltage);
+    m_totalVoltageLog.set(m_BackMotor.getAppliedOutput() * m_BackMotor.getBusVoltage());
+  }
+
+  /**
+   * Run the profiled PID and feedforward once and log each term.
+   *
+   * @param goal the position to maintain
+   * @return clamped output voltage
+   */
+  private double calculateVoltage(double goal)
+  {
+    double pidVolts = m_controller.calculate(getHeightMeters(), goal);
+    double feedforwardVolts = m_feedforward.calculate(getHeightMeters(),
+                                                      m_hasCoral.getAsBoolean(),
+                                                      getVelocityMetersPerSecond(),
+                                                      m_controller.getSetpoint().velocity);
+    double voltsOut = MathUtil.clamp(pidVolts + feedforwardVolts, -3, 3);
+
+    m_pidVoltageLog.set(pidVolts);
+    m_feedforwardVoltageLog.set(feedforwardVolts);
+    m_totalVoltageLog.set(voltsOut);
+    return voltsOut;
+  }
+
+  /**
+   * Follow an S-curve profile to the goal, replanning whenever the goal changes.
+   *
+   * @param goal the position to maintain
+   * @return clamped output voltage
+   */
+  private double calculateSCurveVoltage(double goal)
+  {
+    double height = getHeightMeters();
+    if (goal != m_sCurveGoal)
+    {
+      m_sCurveProfile = planSCurve(height, goal);
+      m_sCurveGoal = goal;
+      m_sCurveTimer.restart();
+    }
+    double t = m_sCurveTimer.get();
+    double dt = m_controller.getPeriod();
+    double setpointVelocity = m_sCurveProfile.velocity(t);
+    double nextVelocity = m_sCurveProfile.velocity(t + dt);
+
+    double pidVolts = m_sCurveController.calculate(height, m_sCurveProfile.position(t));
+    double feedforwardVolts = m_feedforward.calculate(height, m_hasCoral.getAsBoolean(), setpointVelocity,
+                                                      nextVelocity);
+    double voltsOut = MathUtil.clamp(pidVolts + feedforwardVolts,
+                                     -ElevatorConstants.kSCurveMaxVolts,
+                                     ElevatorConstants.kSCurveMaxVolts);
+
+    m_pidVoltageLog.set(pidVolts);
+    m_feedforwardVoltageLog.set(feedforwardVolts);
+    m_totalVoltageLog.set(voltsOut);
+    return voltsOut;
+  }
+
+  /**
+   * Plan the fastest move the motors can make at the current battery voltage. Moves between two presets,
+   * starting at rest on the first, come from a cache keyed by the preset pair and voltage bucket. Anything else
+   * (retargeting mid-move, starting off a preset) is planned from the current height.
+   *
+   * @param from current height in meters
+   * @param to   goal height in meters
+   * @return profile to follow
+   */
+  private SCurveProfile planSCurve(double from, double to)
+  {
+    int bucket = voltageBucket();
+
+    Heights fromPreset = null;
+    if (Math.abs(getVelocityMetersPerSecond()) < ElevatorConstants.kAtHeightTolerance)
+    {
+      for (Heights preset : Heights.values())
+      {
+        if (MathUtil.isNear(heightOf(preset), from, ElevatorConstants.kAtHeightTolerance))
+        {
+          fromPreset = preset;
+          break;
+        }
+      }
+    }
+    if (fromPreset == null || heightOf(m_desiredPreset) != to)
+    {
+      return createSCurve(from, to, bucketVoltage(bucket));
+    }
+    return cachedSCurve(fromPreset, m_desiredPreset, bucket);
+  }
+
+  /**
+   * Profile between two presets at a voltage bucket, planned on first use.
+   */
+  private SCurveProfile cachedSCurve(Heights from, Heights to, int bucket)
+  {
+    SCurveProfile profile = m_sCurveCache[bucket][from.ordinal()][to.ordinal()];
+    if (profile == null)
+    {
+      profile = createSCurve(heightOf(from), heightOf(to), bucketVoltage(bucket));
+      m_sCurveCache[bucket][from.ordinal()][to.ordinal()] = profile;
+    }
+    return profile;
+  }
+
+  /**
+   * Battery voltage, clamped to the planning range and rounded down to a
+   * {@link ElevatorConstants#kSCurveVoltageBucket}, so a sagging battery plans a slightly gentler move without
+   * replanning for every tenth of a volt.
+   */
+  private static int voltageBucket()
+  {
+    double volts = MathUtil.clamp(RobotController.getBatteryVoltage(),
+                                  ElevatorConstants.kSCurveMinPlanningVolts,
+                                  ElevatorConstants.kSCurveMaxPlanningVolts);
+    return (int) Math.floor((volts - ElevatorConstants.kSCurveMinPlanningVolts) /
+                            ElevatorConstants.kSCurveVoltageBucket);
+  }
+
+  private static int voltageBuckets()
+  {
+    return (int) Math.floor((ElevatorConstants.kSCurveMaxPlanningVolts - ElevatorConstants.kSCurveMinPlanningVolts) /
+                            ElevatorConstants.kSCurveVoltageBucket) + 1;
+  }
+
+  private static double bucketVoltage(int bucket)
+  {
+    return ElevatorConstants.kSCurveMinPlanningVolts + bucket * ElevatorConstants.kSCurveVoltageBucket;
+  }
+
+  /**
+   * Build an S-curve with limits from the NEO model: top speed is the carriage speed at free speed with this
+   * much voltage, and acceleration is what the current limit can push upward against gravity with coral loaded.
+   */
+  private SCurveProfile createSCurve(double from, double to, double voltage)
+  {
+    double drumRadius = ElevatorConstants.kElevatorLowerDrumRadius;
+    double gearing = ElevatorConstants.kElevatorGearing;
+
+    double freeSpeed = m_elevatorGearbox.freeSpeedRadPerSec * voltage / m_elevatorGearbox.nominalVoltageVolts;
+    double maxVelocity = Math.min(ElevatorConstants.kSCurveVelocityFraction * freeSpeed / gearing * drumRadius,
+                                  ElevatorConstants.kSCurveMaxVelocity);
+
+    // getNEO(2) lumps both motors together, so the per-motor current limit is doubled
+    double current = Math.min(2 * ElevatorConstants.kElevatorCurrentLimit,
+                              voltage / m_elevatorGearbox.rOhms);
+    double force = m_elevatorGearbox.getTorque(current) * gearing / drumRadius;
+    double mass = ElevatorConstants.kCarriageMass + ElevatorConstants.kCoralMass;
+    double maxAcceleration = Math.min(ElevatorConstants.kSCurveAccelerationFraction * (force / mass - 9.81),
+                                      ElevatorConstants.kSCurveMaxAcceleration);
+    // Never plan slower than the trapezoid limits
+    maxAcceleration = Math.max(maxAcceleration, ElevatorConstants.kMaxAcceleration);
+
+    return new SCurveProfile(from, to, maxVelocity, maxAcceleration, ElevatorConstants.kSCurveMaxJerk);
   }
 
   /**
@@ -179,14 +585,17 @@ public class ElevatorSubsystem extends SubsystemBase
    */
   public void reachFakeGoal(double fakeGoal)
   {
-    double voltsOut = MathUtil.clamp(
-        m_controller.calculate(getHeightMeters(), fakeGoal) +
-        m_feedforward.calculateWithVelocities(getVelocityMetersPerSecond(),
-                                              m_controller.getSetpoint().velocity), -3, 3);
-    SmartDashboard.putNumber("elevatorPIDVoltage: ", m_controller.calculate(getHeightMeters(), fakeGoal));
-    SmartDashboard.putNumber("elevatorFeedforwardVoltage: ", (m_feedforward.calculateWithVelocities(getVelocityMetersPerSecond(),
-    m_controller.getSetpoint().velocity)));
-    SmartDashboard.putNumber("elevatorTotalVoltage: ", voltsOut);
+    calculateVoltage(fakeGoal);
+  }
+
+  /**
+   * Set where the elevator finds out whether coral is loaded, for the feedforward table.
+   *
+   * @param hasCoral true while the shooter holds coral
+   */
+  public void setCoralSupplier(BooleanSupplier hasCoral)
+  {
+    m_hasCoral = hasCoral;
   }
 
   public double frontMCAppliedOutput() {
@@ -242,6 +651,16 @@ public class ElevatorSubsystem extends SubsystemBase
    * @return Height in meters
    */
   public double getHeightMeters()
+  {
+    return m_seeded ? m_heightEstimator.getHeight() : getBackEncoderHeightMeters();
+  }
+
+  /**
+   * Get the height in meters from the back (leader) encoder alone.
+   *
+   * @return Height in meters
+   */
+  public double getBackEncoderHeightMeters()
   {
     return (m_BackEncoder.getPosition() / ElevatorConstants.kElevatorGearing) *
            (2 * Math.PI * ElevatorConstants.kElevatorLowerDrumRadius);
@@ -283,6 +702,16 @@ public class ElevatorSubsystem extends SubsystemBase
                                              tolerance));
   }
 
+  /**
+   * Whether the elevator has reached the height it was last told to go to.
+   *
+   * @return true within {@link ElevatorConstants#kAtHeightTolerance} of the desired height
+   */
+  public boolean isAtDesiredHeight()
+  {
+    return MathUtil.isNear(desiredHeight, getHeightMeters(), ElevatorConstants.kAtHeightTolerance);
+  }
+
   /**
    * Set the goal of the elevator
    *
@@ -331,34 +760,92 @@ public class ElevatorSubsystem extends SubsystemBase
    */
   public void updateTelemetry()
   {
+    double height = getHeightMeters();
+    m_heightLog.set(height);
+    m_frontHeightLog.set(getHeightMetersFrontEncoder());
+    m_frontOutputLog.set(frontMCAppliedOutput());
+    m_backOutputLog.set(backMCAppliedOutput());
+    m_atMaxLog.set(MathUtil.isNear(kMaxHeightMeters, height, kLimitToleranceMeters));
+    m_atMinLog.set(MathUtil.isNear(kMinHeightMeters, height, kLimitToleranceMeters));
   }
 
   public void changeDesiredHeight(Heights height) {
+    m_desiredPreset = height;
+    desiredHeight = heightOf(height);
+  }
+
+  /**
+   * @return the preset last passed to {@link #changeDesiredHeight(Heights)}
+   */
+  public Heights getDesiredPreset()
+  {
+    return m_desiredPreset;
+  }
+
+  /**
+   * Height of a preset in meters.
+   *
+   * @param height preset
+   * @return height in meters
+   */
+  public static double heightOf(Heights height) {
     switch (height) {
       case L1:
-        desiredHeight = ElevatorConstants.kL1Height;
-        break;
+        return ElevatorConstants.kL1Height;
       case L2:
-        desiredHeight = ElevatorConstants.kL2Height;
-        break;
+        return ElevatorConstants.kL2Height;
       case L3:
-        desiredHeight = ElevatorConstants.kL3Height;
-        break;
+        return ElevatorConstants.kL3Height;
       case L4:
-        desiredHeight = ElevatorConstants.kL4Height;
-        break;
-      case REST:
-        desiredHeight = ElevatorConstants.kBottom;
-        break;
+        return ElevatorConstants.kL4Height;
       case HPS:
-        desiredHeight = ElevatorConstants.kHumanPlayerStation;
-        break;
+        return ElevatorConstants.kHumanPlayerStation;
+      case REST:
+      default:
+        return ElevatorConstants.kBottom;
     }
   }
 
+
+  /**
+   * Advance the elevator physics by one step and feed the result back into the simulated SparkMaxes.
+   * Only depends on dtSeconds, so it can be stepped faster than real time.
+   *
+   * @param dtSeconds Time step in seconds
+   */
+  public void simulationStep(double dtSeconds)
+  {
+    double vbus = RoboRioSim.getVInVoltage();
+    // The front motor follows the back motor, so the back motor's output drives both NEOs in the model
+    m_elevatorSim.setInput(m_BackMotorSim.getAppliedOutput() * vbus);
+    m_elevatorSim.update(dtSeconds);
+
+    double motorRPM = convertDistanceToRotations(Meters.of(m_elevatorSim.getVelocityMetersPerSecond())).in(Rotations) * 60;
+    m_BackMotorSim.iterate(motorRPM, vbus, dtSeconds);
+    m_FrontMotorSim.iterate(motorRPM, vbus, dtSeconds);
+  }
+
+  /**
+   * Current drawn by the simulated elevator, for the battery model.
+   *
+   * @return current in amps, 0 on a real robot
+   */
+  public double getSimulatedCurrentDrawAmps()
+  {
+    return m_elevatorSim == null ? 0 : m_elevatorSim.getCurrentDrawAmps();
+  }
+
   @Override
-  public void periodic() {
-   reachGoal(desiredHeight);
+  public void simulationPeriodic() {
+    simulationStep(ElevatorConstants.kSimLoopPeriod);
+  }
 
+  @Override
+  public void periodic() {
+    m_profile.begin();
+    updateHeightEstimate();
+    reachGoal(desiredHeight);
+    updateTelemetry();
+    m_profile.end();
   }
 }
\ No newline at end of file
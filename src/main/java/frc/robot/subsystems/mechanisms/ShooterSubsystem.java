@@ -2,6 +2,7 @@ package frc.robot.subsystems.mechanisms;
 
 import com.revrobotics.spark.SparkLowLevel.MotorType;
 import com.revrobotics.RelativeEncoder;
+import com.revrobotics.sim.SparkMaxSim;
 import com.revrobotics.spark.SparkMax;
 import com.revrobotics.spark.SparkBase.PersistMode;
 import com.revrobotics.spark.SparkBase.ResetMode;
@@ -12,6 +13,8 @@ import au.grapplerobotics.LaserCan;
 
 import edu.wpi.first.math.Nat;
 import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.filter.Debouncer;
+import edu.wpi.first.math.interpolation.TimeInterpolatableBuffer;
 import edu.wpi.first.math.controller.LinearQuadraticRegulator;
 import edu.wpi.first.math.estimator.KalmanFilter;
 import edu.wpi.first.math.numbers.N1;
@@ -20,25 +23,91 @@ import edu.wpi.first.math.system.LinearSystemLoop;
 import edu.wpi.first.math.system.plant.DCMotor;
 import edu.wpi.first.math.system.plant.LinearSystemId;
 import edu.wpi.first.math.util.Units;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.simulation.FlywheelSim;
+import edu.wpi.first.wpilibj.simulation.RoboRioSim;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import edu.wpi.first.wpilibj2.command.button.Trigger;
+import frc.robot.Constants.CanConstants;
 import frc.robot.Constants.MotorLimit;
 import frc.robot.Constants.ShooterConstants;
+import frc.robot.Constants.ShooterConstants.ControlMode;
+import frc.robot.util.CanBandwidthManager;
+import frc.robot.util.CanBandwidthManager.SparkSignal;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.Telemetry;
 
 public class ShooterSubsystem extends SubsystemBase {
     
     private final SparkMax shooterMotor = new SparkMax(ShooterConstants.kShooterMotorPort, MotorType.kBrushless);
 
     private final LaserCan coralSensor = new LaserCan(ShooterConstants.kLaserCANPort);
-    
 
-    
+    // The coral sensor is read once per loop in periodic(); everything else uses these
+    private int coralDistanceMm = -1;
+    private boolean coralSeen = false;
+    private boolean hasCoral = false;
+    private final Debouncer coralDebouncer =
+        new Debouncer(ShooterConstants.kCoralDebounceSeconds, Debouncer.DebounceType.kBoth);
+
+    /** Becomes true when coral arrives, bind with onTrue() to react to coral coming in. */
+    public final Trigger coralIn = new Trigger(this::hasCoral);
+    /** Becomes true when coral leaves, bind with onTrue() to react to coral going out. */
+    public final Trigger coralOut = coralIn.negate();
 
     private final RelativeEncoder shooterMotorEncoder = shooterMotor.getEncoder();
 
+    private final LoopProfiler.Section profile = LoopProfiler.section("Shooter");
+
+    private final Telemetry.BooleanChannel hasCoralLog = Telemetry.booleanChannel("hasCoral", true);
+    private final Telemetry.DoubleChannel coralDistanceLog = Telemetry.doubleChannel("Coral Sensor Distance", false);
+    private final Telemetry.DoubleChannel shooterSpeedLog = Telemetry.doubleChannel("Shooter Speed", true);
+    private final Telemetry.DoubleChannel shooterEstimatedSpeedLog = Telemetry.doubleChannel("Shooter Estimated Speed", false);
+    private final Telemetry.DoubleChannel shooterVoltageLog = Telemetry.doubleChannel("Shooter Voltage", false);
+    private final Telemetry.DoubleChannel shooterLoopDtLog = Telemetry.doubleChannel("Shooter Loop dt", false);
+    private final Telemetry.DoubleChannel simCoralPositionLog = Telemetry.doubleChannel("Sim Coral Position", true);
+
+    // Simulation classes, only created in simulation, see simulationStep().
+    private final DCMotor shooterGearbox = DCMotor.getNEO(1);
+    private SparkMaxSim shooterMotorSim;
+    private FlywheelSim flywheelSim;
+
+    // Leading edge of the simulated coral along its path through the shooter, in meters from the intake mouth.
+    // NaN when there is no coral in the shooter.
+    private double simCoralPositionMeters = Double.NaN;
+
     
 
-    public static double kSpinupRadPerSec = Units.rotationsPerMinuteToRadiansPerSecond(0);
+    /**
+     * What the control loop did on its last run. Immutable, so the main loop can read it while the Notifier is
+     * replacing it.
+     *
+     * @param timestampSeconds    FPGA time the loop ran
+     * @param dtSeconds           measured time since the previous run
+     * @param measuredRPM         motor encoder velocity as read, in motor RPM (before the flywheel gearing), still
+     *                            delayed by the SparkMax velocity filter
+     * @param estimatedRadPerSec  observer's latency compensated estimate, in flywheel rad/s (after the gearing)
+     * @param targetRadPerSec     setpoint the loop was tracking, in flywheel rad/s
+     * @param volts               voltage sent to the motor
+     */
+    public record LoopState(double timestampSeconds, double dtSeconds, double measuredRPM, double estimatedRadPerSec,
+                            double targetRadPerSec, double volts) {}
+
+    // Written by commands on the main thread, read by the control loop. Flywheel rad/s, like the plant state.
+    private volatile double targetRadPerSec = 0;
+    private volatile LoopState loopState = new LoopState(0, 0, 0, 0, 0, 0);
+
+    // Guards the state-space loop and the estimate history, which initFlywheel() resets from the main thread
+    private final Object loopLock = new Object();
+    private final double loopPeriod =
+        ShooterConstants.kControlMode == ControlMode.NOTIFIER ? ShooterConstants.kNotifierPeriod : ShooterConstants.kMainLoopPeriod;
+    private double lastLoopTime = Double.NaN;
+    // Observer estimate at the start of each loop, to line up velocity readings that are kVelocityLatencySeconds old
+    private final TimeInterpolatableBuffer<Double> estimateHistory =
+        TimeInterpolatableBuffer.createDoubleBuffer(ShooterConstants.kEstimateHistorySeconds);
+    private Notifier controlNotifier;
 
     //private static final double kFlywheelGearing = 4.0;
     //TODO: get proper MoIs from onshape, including EVERYTHING that rotates
@@ -64,7 +133,7 @@ public class ShooterSubsystem extends SubsystemBase {
           VecBuilder.fill(ShooterConstants.kStateStdDevs), // How accurate we think our model is
           VecBuilder.fill(ShooterConstants.kMeasurementStdDevs), // How accurate we think our encoder
           // data is
-          0.020);
+          loopPeriod);
 
   // A LQR uses feedback to create voltage commands.
   private final LinearQuadraticRegulator<N1, N1, N1> m_Controller =
@@ -76,19 +145,22 @@ public class ShooterSubsystem extends SubsystemBase {
           VecBuilder.fill(ShooterConstants.kRelms), // relms. Control effort (voltage) tolerance. Decrease this to more
           // heavily penalize control effort, or make the controller less aggressive. 12 is a good
           // starting point because that is the (approximate) maximum voltage of a battery.
-          0.020); // Nominal time between loops. 0.020 for TimedRobot, but can be
-  // lower if using notifiers.
+          loopPeriod); // Nominal time between loops. 0.020 for TimedRobot, kNotifierPeriod with the Notifier.
 
   // The state-space loop combines a controller, observer, feedforward and plant for easy control.
   private final LinearSystemLoop<N1, N1, N1> m_Loop =
-      new LinearSystemLoop<>(m_FlywheelPlant, m_Controller, m_Observer, ShooterConstants.kMaxVoltage, 0.020);
+      new LinearSystemLoop<>(m_FlywheelPlant, m_Controller, m_Observer, ShooterConstants.kMaxVoltage, loopPeriod);
 
     public void initFlywheel() {
-        m_Loop.reset(VecBuilder.fill(Units.rotationsPerMinuteToRadiansPerSecond(shooterMotorEncoder.getVelocity())));
+        synchronized (loopLock) {
+            m_Loop.reset(VecBuilder.fill(flywheelRadPerSec(shooterMotorEncoder.getVelocity())));
+            estimateHistory.clear();
+            lastLoopTime = Double.NaN;
+        }
     }
 
     public boolean isSpunUp() {
-        if (Math.abs(shooterMotorEncoder.getVelocity()) > ShooterConstants.kSpunUpRPM) {
+        if (Math.abs(loopState.measuredRPM()) > ShooterConstants.kSpunUpRPM) {
             return true;
         }
         else {
@@ -96,15 +168,54 @@ public class ShooterSubsystem extends SubsystemBase {
         }
     }
 
+    /**
+     * Convert a motor encoder reading to the flywheel speed the plant models.
+     *
+     * @param motorRPM motor velocity in RPM
+     * @return flywheel velocity in radians per second
+     */
+    private static double flywheelRadPerSec(double motorRPM) {
+        return Units.rotationsPerMinuteToRadiansPerSecond(motorRPM) / ShooterConstants.kFlywheelGearing;
+    }
+
     public ShooterSubsystem () {
+        this(ShooterConstants.kControlMode == ControlMode.NOTIFIER);
+    }
+
+    /**
+     * @param startNotifier start the control loop Notifier. Pass false to call {@link #runControlLoop()} by hand,
+     *                      e.g. from a benchmark, without the Notifier also running it.
+     */
+    public ShooterSubsystem(boolean startNotifier) {
         SparkMaxConfig shooterMotorConfig = new SparkMaxConfig();
 
         shooterMotorConfig.smartCurrentLimit(MotorLimit.Neo.stall, MotorLimit.Neo.free, MotorLimit.Neo.stallRPM);
 
         //shooterMotorConfig.alternateEncoder.velocityConversionFactor(1/ShooterConstants.kFlywheelGearing);
 
+        // Shorter hall sensor velocity filter and faster velocity frames, so the observer sees fresher data.
+        // Nothing else on the shooter SparkMax is read on the real robot.
+        shooterMotorConfig.encoder
+            .uvwMeasurementPeriod(ShooterConstants.kVelocityMeasurementPeriodMs)
+            .uvwAverageDepth(ShooterConstants.kVelocityAverageDepth);
+        CanBandwidthManager.spark("Shooter", ShooterConstants.kShooterMotorPort)
+            .consume(SparkSignal.PRIMARY_VELOCITY, ShooterConstants.kVelocityFramePeriodMs)
+            .consume(SparkSignal.FAULTS, CanConstants.kHealthPeriodMs)
+            .consume(SparkSignal.WARNINGS, CanConstants.kHealthPeriodMs)
+            .applyTo(shooterMotorConfig);
+
         shooterMotor.configure(shooterMotorConfig, ResetMode.kNoResetSafeParameters, PersistMode.kPersistParameters);
-        
+
+        if (RobotBase.isSimulation()) {
+            shooterMotorSim = new SparkMaxSim(shooterMotor, shooterGearbox);
+            flywheelSim = new FlywheelSim(m_FlywheelPlant, shooterGearbox);
+        }
+
+        if (startNotifier) {
+            controlNotifier = new Notifier(this::runControlLoop);
+            controlNotifier.setName("Shooter");
+            controlNotifier.startPeriodic(ShooterConstants.kNotifierPeriod);
+        }
     }
 
     /*public void unguidedShoot() {
@@ -115,43 +226,197 @@ public class ShooterSubsystem extends SubsystemBase {
         kSpinupRadPerSec = Units.rotationsPerMinuteToRadiansPerSecond(-desiredSpeed);
     }*/
 
+    /**
+     * Spin the flywheel up to a speed.
+     *
+     * @param desiredSpeed motor RPM, as the speed constants and the encoder read it
+     */
     public void guidedShoot(double desiredSpeed) {
-        kSpinupRadPerSec = Units.rotationsPerMinuteToRadiansPerSecond(desiredSpeed);
+        targetRadPerSec = flywheelRadPerSec(desiredSpeed);
     }
 
     public void stop() {
-        kSpinupRadPerSec = 0;
+        targetRadPerSec = 0;
     }
 
+    /**
+     * @return what the control loop did on its last run
+     */
+    public LoopState getLoopState() {
+        return loopState;
+    }
+
+    /**
+     * One run of the Kalman/LQR flywheel loop. Called from the Notifier, or from periodic() in MAIN_LOOP mode.
+     *
+     * <p>The SparkMax velocity is a moving average, so each reading describes the flywheel about
+     * kVelocityLatencySeconds ago. Rather than correct the current estimate against a stale reading, the reading
+     * is shifted forward by how much the estimate itself changed since then, which makes the innovation the
+     * difference between the reading and what the observer thought at the time it was taken.
+     */
+    public void runControlLoop() {
+        synchronized (loopLock) {
+            double now = Timer.getFPGATimestamp();
+            double dt = now - lastLoopTime;
+            if (Double.isNaN(dt) || dt <= 0 || dt > ShooterConstants.kMaxLoopDtPeriods * loopPeriod) {
+                // First run, or resuming after a stall: one nominal period is the best guess
+                dt = loopPeriod;
+            }
+            lastLoopTime = now;
+
+            double target = targetRadPerSec;
+            double measuredRPM = shooterMotorEncoder.getVelocity();
+            // The encoder is on the motor, the plant state is the flywheel
+            double measured = flywheelRadPerSec(measuredRPM);
+
+            double estimateNow = m_Loop.getXHat(0);
+            estimateHistory.addSample(now, estimateNow);
+            double estimateThen = estimateHistory.getSample(now - ShooterConstants.kVelocityLatencySeconds)
+                .orElse(estimateNow);
+
+            m_Loop.setNextR(VecBuilder.fill(target));
+            m_Loop.correct(VecBuilder.fill(measured + estimateNow - estimateThen));
+            double estimate = m_Loop.getXHat(0);
+            m_Loop.predict(dt);
+
+            double volts = m_Loop.getU(0);
+            shooterMotor.setVoltage(volts);
+
+            loopState = new LoopState(now, dt, measuredRPM, estimate, target, volts);
+        }
+    }
+
+    /**
+     * @return whether coral is in the shooter, as of the last sensor sample. Doesn't touch the CAN bus.
+     */
     public boolean hasCoral() {
-        LaserCan.Measurement measurement = coralSensor.getMeasurement();
-        if (measurement != null && measurement.status == LaserCan.LASERCAN_STATUS_VALID_MEASUREMENT && measurement.distance_mm < ShooterConstants.kSensorDistance) {
-            return true;
+        return hasCoral;
+    }
+
+    /**
+     * @return last coral sensor distance in mm, or -1 if it had no valid measurement
+     */
+    public int getCoralDistanceMm() {
+        return coralDistanceMm;
+    }
+
+    /**
+     * Read the coral sensor once and update the cached state. Coral is seen below kSensorDistance and stays
+     * seen until the reading goes past kSensorDistance plus the hysteresis band, so a coral edge hovering at
+     * the threshold doesn't flicker. The result is then debounced.
+     */
+    private void updateCoralSensor() {
+        coralDistanceMm = sampleCoralSensorMm();
+        if (coralDistanceMm < 0) {
+            // No target in range
+            coralSeen = false;
+        } else if (coralSeen) {
+            coralSeen = coralDistanceMm <= ShooterConstants.kSensorDistance + ShooterConstants.kSensorHysteresisMm;
         } else {
-            return false;
+            coralSeen = coralDistanceMm < ShooterConstants.kSensorDistance;
+        }
+        hasCoral = coralDebouncer.calculate(coralSeen);
+        coralDistanceLog.set(coralDistanceMm);
+    }
+
+    /**
+     * Read the coral LaserCan, or the simulated coral when running in simulation.
+     * @return distance in mm, or -1 if there is no valid measurement
+     */
+    private int sampleCoralSensorMm() {
+        if (flywheelSim != null) {
+            return simCoralOverSensor() ? ShooterConstants.kSimCoralDistanceMm : ShooterConstants.kSimEmptyDistanceMm;
+        }
+        LaserCan.Measurement measurement = coralSensor.getMeasurement();
+        if (measurement != null && measurement.status == LaserCan.LASERCAN_STATUS_VALID_MEASUREMENT) {
+            return measurement.distance_mm;
+        }
+        return -1;
+    }
+
+    private boolean simCoralOverSensor() {
+        // NaN comparisons are false, so an empty shooter never reads as coral
+        return simCoralPositionMeters >= ShooterConstants.kSimSensorPositionMeters
+            && simCoralPositionMeters - ShooterConstants.kSimCoralLengthMeters <= ShooterConstants.kSimSensorPositionMeters;
+    }
+
+    /**
+     * Place a simulated coral at the intake mouth, as if the human player had just dropped one in.
+     * Does nothing outside of simulation or if the shooter already holds a coral.
+     */
+    public void simulateCoralAtIntake() {
+        if (flywheelSim != null && Double.isNaN(simCoralPositionMeters)) {
+            simCoralPositionMeters = 0;
+        }
+    }
+
+    /**
+     * @return true while a simulated coral is anywhere in the shooter
+     */
+    public boolean isSimCoralInShooter() {
+        return !Double.isNaN(simCoralPositionMeters);
+    }
+
+    /**
+     * Advance the flywheel and coral models by dtSeconds.
+     * @param dtSeconds time since the last step
+     */
+    public void simulationStep(double dtSeconds) {
+        double vbus = RoboRioSim.getVInVoltage();
+        flywheelSim.setInputVoltage(shooterMotorSim.getAppliedOutput() * vbus);
+        flywheelSim.update(dtSeconds);
+
+        // The encoder is on the motor, so it spins gearing times faster than the flywheel
+        double motorRPM = flywheelSim.getAngularVelocityRPM() * ShooterConstants.kFlywheelGearing;
+        shooterMotorSim.iterate(motorRPM, vbus, dtSeconds);
+
+        if (!Double.isNaN(simCoralPositionMeters)) {
+            // Coral moves with the wheel surface; it can be backed out of the intake but not past the mouth
+            double surfaceSpeed = flywheelSim.getAngularVelocityRadPerSec() * ShooterConstants.kWheelDiameterMeters / 2;
+            simCoralPositionMeters = Math.max(0, simCoralPositionMeters + surfaceSpeed * dtSeconds);
+            if (simCoralPositionMeters - ShooterConstants.kSimCoralLengthMeters > ShooterConstants.kSimExitPositionMeters) {
+                simCoralPositionMeters = Double.NaN;
+            }
         }
+        simCoralPositionLog.set(simCoralPositionMeters);
+    }
+
+    /**
+     * @return current drawn by the simulated shooter motor, or 0 when not simulating
+     */
+    public double getSimulatedCurrentDrawAmps() {
+        return flywheelSim == null ? 0 : flywheelSim.getCurrentDrawAmps();
     }
 
 
     @Override
     public void periodic() {
+        profile.begin();
+        updateCoralSensor();
         //System.out.println("shooter speed: " + ((shooterEncoder.getVelocity()*(Math.PI*0.1016))/60 )+ " m/s");
-    
-        m_Loop.setNextR(VecBuilder.fill(kSpinupRadPerSec));
 
-        m_Loop.correct(VecBuilder.fill(Units.rotationsPerMinuteToRadiansPerSecond(shooterMotorEncoder.getVelocity())));
-
-        m_Loop.predict(0.020);
-
-        double nextVoltage = m_Loop.getU(0);
-        shooterMotor.setVoltage(nextVoltage);
+        if (ShooterConstants.kControlMode == ControlMode.MAIN_LOOP) {
+            runControlLoop();
+        }
 
-        SmartDashboard.putBoolean("hasCoral", hasCoral());
+        hasCoralLog.set(hasCoral);
 
-        SmartDashboard.putNumber("Shooter Speed", shooterMotorEncoder.getVelocity());
+        LoopState state = loopState;
+        shooterSpeedLog.set(state.measuredRPM());
+        // Back in motor RPM, so it lines up with the measured speed
+        shooterEstimatedSpeedLog.set(Units.radiansPerSecondToRotationsPerMinute(state.estimatedRadPerSec())
+                                     * ShooterConstants.kFlywheelGearing);
+        shooterVoltageLog.set(state.volts());
+        shooterLoopDtLog.set(state.dtSeconds());
+        profile.end();
 
 
     
     }
 
+    @Override
+    public void simulationPeriodic() {
+        simulationStep(ShooterConstants.kSimLoopPeriod);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,197 @@
+package frc.robot.subsystems.mechanisms;
+
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.Commands;
+import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.Constants.ElevatorConstants.Heights;
+import frc.robot.Constants.ShooterConstants;
+import frc.robot.util.Telemetry;
+
+/**
+ * Coordinates the elevator and shooter through a scoring cycle: intake at the human player station until coral
+ * is in, raise to the selected level, eject once there, then head straight back to intake.
+ *
+ * <p>Driver requests are remembered rather than held: a level picked while intaking is raised to as soon as
+ * coral arrives, and a score pressed while the elevator is still moving fires as soon as it's at height.
+ * Setpoints are only sent to the mechanisms on state changes.
+ *
+ * <p>The request commands require the elevator and shooter along with the superstructure, and keep running the
+ * state machine until it's back at rest. So a manual elevator or shooter command interrupts the cycle instead of
+ * fighting it, and the cycle stays paused until the next request.
+ */
+public class Superstructure extends SubsystemBase {
+
+    public enum State {
+        IDLE,      // at rest, shooter stopped
+        INTAKING,  // at the HPS with the shooter pulling coral in
+        HOLDING,   // coral in, no level picked yet
+        RAISING,   // coral in, moving to (or waiting at) the selected level
+        EJECTING   // at the level, shooter pushing coral out
+    }
+
+    private final ElevatorSubsystem elevator;
+    private final ShooterSubsystem shooter;
+
+    private State state = State.IDLE;
+    private Heights targetLevel = null;
+    private boolean scoreRequested = false;
+
+    private final Timer stateTimer = new Timer();
+    // Time the coral sensor cleared while ejecting, or NaN while it still sees coral
+    private double coralClearedTime = Double.NaN;
+
+    private final Telemetry.StringChannel stateLog = Telemetry.stringChannel("Superstructure State", true);
+
+    public Superstructure(ElevatorSubsystem elevator, ShooterSubsystem shooter) {
+        this.elevator = elevator;
+        this.shooter = shooter;
+        stateTimer.start();
+        stateLog.set(state.name());
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Go to the HPS and intake, or hold if there's already coral.
+     */
+    public void requestIntake() {
+        if (state == State.EJECTING) {
+            return;
+        }
+        setState(shooter.hasCoral() ? State.HOLDING : State.INTAKING);
+    }
+
+    /**
+     * Pick the level to score on. Raises right away with coral, otherwise as soon as coral arrives.
+     *
+     * @param level L1 to L4
+     */
+    public void requestLevel(Heights level) {
+        if (state == State.EJECTING) {
+            return;
+        }
+        targetLevel = level;
+        if (state == State.HOLDING || state == State.RAISING || (state == State.IDLE && shooter.hasCoral())) {
+            setState(State.RAISING);
+        }
+    }
+
+    /**
+     * Score once the elevator is at the selected level. Stays latched until then, so it can be pressed early.
+     */
+    public void requestScore() {
+        scoreRequested = true;
+    }
+
+    /**
+     * Drop everything and return to rest.
+     */
+    public void requestRest() {
+        targetLevel = null;
+        scoreRequested = false;
+        setState(State.IDLE);
+    }
+
+    public Command intakeCommand() {
+        return cycle(this::requestIntake, "Superstructure Intake");
+    }
+
+    public Command levelCommand(Heights level) {
+        return cycle(() -> requestLevel(level), "Superstructure " + level);
+    }
+
+    public Command scoreCommand() {
+        return cycle(this::requestScore, "Superstructure Score");
+    }
+
+    public Command restCommand() {
+        return cycle(this::requestRest, "Superstructure Rest");
+    }
+
+    /**
+     * Make a request, then run the state machine until it's back at rest. Requires the elevator and shooter, so
+     * the next request replaces this command and a manual mechanism command cancels it.
+     */
+    private Command cycle(Runnable request, String name) {
+        Command command = Commands.runOnce(request)
+                                  .andThen(Commands.run(this::update).until(() -> state == State.IDLE));
+        command.addRequirements(this, elevator, shooter);
+        return command.withName(name);
+    }
+
+    private void setState(State next) {
+        state = next;
+        stateTimer.reset();
+        stateLog.set(next.name());
+        switch (next) {
+            case IDLE:
+                elevator.changeDesiredHeight(Heights.REST);
+                shooter.stop();
+                break;
+            case INTAKING:
+                elevator.changeDesiredHeight(Heights.HPS);
+                shooter.guidedShoot(ShooterConstants.kIntakeSpeed);
+                break;
+            case HOLDING:
+                elevator.changeDesiredHeight(Heights.REST);
+                shooter.stop();
+                break;
+            case RAISING:
+                elevator.changeDesiredHeight(targetLevel);
+                shooter.stop();
+                break;
+            case EJECTING:
+                coralClearedTime = Double.NaN;
+                shooter.guidedShoot(targetLevel == Heights.L1 ? ShooterConstants.kL1Speed : ShooterConstants.kL24Speed);
+                break;
+        }
+    }
+
+    private void update() {
+        switch (state) {
+            case IDLE:
+                break;
+            case INTAKING:
+                if (shooter.hasCoral()) {
+                    setState(targetLevel != null ? State.RAISING : State.HOLDING);
+                }
+                break;
+            case HOLDING:
+                break;
+            case RAISING:
+                if (!shooter.hasCoral()) {
+                    // Dropped it on the way up
+                    setState(State.INTAKING);
+                } else if (scoreRequested && elevator.isAtDesiredHeight()) {
+                    setState(State.EJECTING);
+                }
+                break;
+            case EJECTING:
+                if (shooter.hasCoral()) {
+                    coralClearedTime = Double.NaN;
+                } else if (Double.isNaN(coralClearedTime)) {
+                    coralClearedTime = stateTimer.get();
+                }
+                boolean cleared = !Double.isNaN(coralClearedTime)
+                                  && stateTimer.get() - coralClearedTime >= ShooterConstants.kEjectSettleSeconds;
+                if (cleared || stateTimer.hasElapsed(ShooterConstants.kEjectTimeoutSeconds)) {
+                    targetLevel = null;
+                    scoreRequested = false;
+                    // Head back down for the next coral while the shooter spins into intake
+                    setState(State.INTAKING);
+                }
+                break;
+        }
+    }
+
+    /**
+     * @return whether the elevator is at the selected scoring level, e.g. for driver feedback
+     */
+    public boolean isReadyToScore() {
+        return state == State.RAISING && targetLevel != null
+               && elevator.getDesiredPreset() == targetLevel && elevator.isAtDesiredHeight();
+    }
+}
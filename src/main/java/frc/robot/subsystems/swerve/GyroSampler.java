@@ -0,0 +1,156 @@
+package frc.robot.subsystems.swerve;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusCode;
+import com.ctre.phoenix6.StatusSignal;
+import com.ctre.phoenix6.hardware.Pigeon2;
+
+import edu.wpi.first.math.interpolation.TimeInterpolatableBuffer;
+import edu.wpi.first.units.measure.Angle;
+import edu.wpi.first.units.measure.AngularVelocity;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Reads the Pigeon2 orientation and body rates on its own thread and publishes them as one snapshot.
+ *
+ * <p>The six signals are fetched once at construction and refreshed together with
+ * {@link BaseStatusSignal#waitForAll}, which blocks until the Pigeon has sent a new value of every one of them.
+ * So each snapshot is a consistent set of readings taken at the same time, and the thread runs at whatever
+ * rate the signals are set to update at. Consumers read {@link #getSnapshot()} and never touch the CAN bus.
+ * If a refresh fails, the last readings are kept but marked invalid, and the thread waits one timeout before
+ * trying again.
+ * The yaw rate of every sample is also kept for a short time, so it can be looked up at the time a
+ * measurement was taken with {@link #getYawRateAt(double)}.
+ */
+public class GyroSampler implements AutoCloseable {
+
+    /**
+     * One set of gyro readings.
+     *
+     * @param timestampSeconds   FPGA time the readings were taken, with the CAN latency taken off
+     * @param yawDeg             raw Pigeon yaw, not zeroed, in degrees
+     * @param pitchDeg           pitch in degrees
+     * @param rollDeg            roll in degrees
+     * @param yawRateDegPerSec   yaw rate in degrees per second
+     * @param pitchRateDegPerSec pitch rate in degrees per second
+     * @param rollRateDegPerSec  roll rate in degrees per second
+     * @param valid              false if the last refresh timed out or failed, the values are the last good ones
+     */
+    public record Snapshot(double timestampSeconds,
+                           double yawDeg, double pitchDeg, double rollDeg,
+                           double yawRateDegPerSec, double pitchRateDegPerSec, double rollRateDegPerSec,
+                           boolean valid) {}
+
+    private final StatusSignal<Angle> yaw;
+    private final StatusSignal<Angle> pitch;
+    private final StatusSignal<Angle> roll;
+    private final StatusSignal<AngularVelocity> yawRate;
+    private final StatusSignal<AngularVelocity> pitchRate;
+    private final StatusSignal<AngularVelocity> rollRate;
+    private final BaseStatusSignal[] signals;
+
+    // Guarded by itself, written by the sampler thread and read from the main loop
+    private final TimeInterpolatableBuffer<Double> yawRateHistory;
+
+    private final double timeoutSeconds;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Snapshot snapshot = new Snapshot(0, 0, 0, 0, 0, 0, 0, false);
+
+    /**
+     * @param pigeon      the Pigeon2 to read
+     * @param frequencyHz rate the signals are declared to update at (see {@link #getSignals()}), used for the
+     *                    refresh timeout
+     * @param historySeconds how long to keep the yaw rate for {@link #getYawRateAt(double)}
+     */
+    public GyroSampler(Pigeon2 pigeon, double frequencyHz, double historySeconds) {
+        yaw = pigeon.getYaw();
+        pitch = pigeon.getPitch();
+        roll = pigeon.getRoll();
+        yawRate = pigeon.getAngularVelocityZDevice();
+        pitchRate = pigeon.getAngularVelocityYDevice();
+        rollRate = pigeon.getAngularVelocityXDevice();
+        signals = new BaseStatusSignal[] {yaw, pitch, roll, yawRate, pitchRate, rollRate};
+        yawRateHistory = TimeInterpolatableBuffer.createDoubleBuffer(historySeconds);
+
+        // Two periods, so one missed frame doesn't count as a failure
+        timeoutSeconds = 2 / frequencyHz;
+
+        thread = new Thread(this::run, "GyroSampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the signals this sampler refreshes, to declare their update frequency
+     */
+    public BaseStatusSignal[] getSignals() {
+        return signals;
+    }
+
+    /**
+     * @return the latest readings. Safe to call from any thread.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Yaw rate interpolated at a past time, e.g. when a camera frame was captured. Falls back to the latest
+     * reading when nothing has been sampled yet.
+     *
+     * @param timestampSeconds FPGA time to look up
+     * @return yaw rate in degrees per second
+     */
+    public double getYawRateAt(double timestampSeconds) {
+        synchronized (yawRateHistory) {
+            return yawRateHistory.getSample(timestampSeconds).orElse(snapshot.yawRateDegPerSec());
+        }
+    }
+
+    private void run() {
+        // Whether the current run of failures has been reported, so a missing Pigeon warns once, not every loop
+        boolean failureReported = false;
+        while (running) {
+            StatusCode status = BaseStatusSignal.waitForAll(timeoutSeconds, signals);
+            if (!status.isOK()) {
+                Snapshot last = snapshot;
+                if (last.valid()) {
+                    snapshot = new Snapshot(last.timestampSeconds(),
+                                            last.yawDeg(), last.pitchDeg(), last.rollDeg(),
+                                            last.yawRateDegPerSec(), last.pitchRateDegPerSec(), last.rollRateDegPerSec(),
+                                            false);
+                }
+                if (!failureReported) {
+                    DriverStation.reportWarning("GyroSampler: Pigeon2 refresh failed (" + status.getName() +
+                                                "), keeping the last good readings", false);
+                    failureReported = true;
+                }
+                // Some errors return straight away instead of waiting out the timeout, so don't spin on them
+                try {
+                    Thread.sleep((long) (timeoutSeconds * 1000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            failureReported = false;
+            Snapshot sample = new Snapshot(Timer.getFPGATimestamp() - yaw.getTimestamp().getLatency(),
+                                           yaw.getValueAsDouble(), pitch.getValueAsDouble(), roll.getValueAsDouble(),
+                                           yawRate.getValueAsDouble(), pitchRate.getValueAsDouble(),
+                                           rollRate.getValueAsDouble(),
+                                           true);
+            synchronized (yawRateHistory) {
+                yawRateHistory.addSample(sample.timestampSeconds(), sample.yawRateDegPerSec());
+            }
+            snapshot = sample;
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+    }
+}
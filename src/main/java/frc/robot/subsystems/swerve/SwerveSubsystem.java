@@ -6,21 +6,25 @@ import frc.robot.Constants;
 import frc.robot.Constants.SwerveConstants;
 import frc.robot.Constants.VisionConstants;
 import frc.robot.subsystems.vision.Vision;
-import limelight.Limelight;
-import limelight.networktables.AngularVelocity3d;
-import limelight.networktables.LimelightPoseEstimator;
-import limelight.networktables.LimelightResults;
-import limelight.networktables.Orientation3d;
-import limelight.networktables.PoseEstimate;
+import frc.robot.Constants.CanConstants;
+import frc.robot.util.CanBandwidthManager;
+import frc.robot.util.CanBandwidthManager.SparkSignal;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.Telemetry;
 
 import static edu.wpi.first.units.Units.DegreesPerSecond;
 import static edu.wpi.first.units.Units.Meter;
 
 import java.io.File;
-import java.util.Optional;
+
+import org.ironmaple.simulation.drivesims.SwerveDriveSimulation;
 
 import com.ctre.phoenix6.hardware.Pigeon2;
 import com.pathplanner.lib.auto.AutoBuilder;
+import com.revrobotics.spark.SparkBase.PersistMode;
+import com.revrobotics.spark.SparkBase.ResetMode;
+import com.revrobotics.spark.SparkMax;
+import com.revrobotics.spark.config.SparkMaxConfig;
 import com.pathplanner.lib.commands.PathPlannerAuto;
 import com.pathplanner.lib.commands.PathfindingCommand;
 import com.pathplanner.lib.config.PIDConstants;
@@ -39,15 +43,18 @@ import swervelib.telemetry.SwerveDriveTelemetry;
 import swervelib.telemetry.SwerveDriveTelemetry.TelemetryVerbosity;
 import swervelib.SwerveController;
 import swervelib.SwerveDrive;
+import swervelib.SwerveModule;
 import edu.wpi.first.apriltag.AprilTagFieldLayout;
 import edu.wpi.first.apriltag.AprilTagFields;
-import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Rotation3d;
 import edu.wpi.first.math.geometry.Translation2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.kinematics.SwerveDriveOdometry3d;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.networktables.StructArrayPublisher;
 import edu.wpi.first.networktables.StructPublisher;
@@ -64,20 +71,31 @@ public class SwerveSubsystem extends SubsystemBase {
 
     private Pose2d startingPose;
 
-    Limelight limelight;
-
-    LimelightPoseEstimator limelightPoseEstimator;
 
-    Optional<PoseEstimate> poseEstimates;
-
-    private final boolean useVision = false; //TODO: change once limelight is reattached
+    private final LoopProfiler.Section profile = LoopProfiler.section("Swerve");
     
     private final AprilTagFieldLayout aprilTagFieldLayout = AprilTagFieldLayout.loadField(AprilTagFields.k2025ReefscapeAndyMark);
 
     StructPublisher<Pose2d> publisher = NetworkTableInstance.getDefault().getStructTopic("MyPose", Pose2d.struct).publish();
     StructArrayPublisher<Pose2d> arrayPublisher = NetworkTableInstance.getDefault().getStructArrayTopic("MyPoseArray", Pose2d.struct).publish();
 
-    StructPublisher<Pose2d> visionpublisher = NetworkTableInstance.getDefault().getStructTopic("vision pose", Pose2d.struct).publish();
+    // maple-sim drivetrain YAGSL builds from the deploy/swerve configs in simulation (collisions, wheel slip,
+    // reef and field wall obstacles). Null on the robot. Set in initDrive().
+    private SwerveDriveSimulation mapleSimDrive;
+
+    // Pigeon orientation and rates, sampled on their own thread and shared by vision and logging. Set in initDrive().
+    private GyroSampler gyroSampler;
+    private final Telemetry.DoubleChannel gyroYawRateLog = Telemetry.doubleChannel("Gyro Yaw Rate", false);
+    private final Telemetry.DoubleChannel gyroPitchLog = Telemetry.doubleChannel("Gyro Pitch", false);
+    private final Telemetry.DoubleChannel gyroRollLog = Telemetry.doubleChannel("Gyro Roll", false);
+    private final Telemetry.DoubleChannel gyroAgeLog = Telemetry.doubleChannel("Gyro Sample Age", false);
+    private final Telemetry.BooleanChannel gyroValidLog = Telemetry.booleanChannel("Gyro Valid", false);
+
+    private final Telemetry.StructChannel<Pose2d> truePoseLog =
+        Telemetry.structChannel("Sim True Pose", Pose2d.struct, true);
+    private final Telemetry.StructChannel<ChassisSpeeds> trueSpeedsLog =
+        Telemetry.structChannel("Sim True Field Speeds", ChassisSpeeds.struct, true);
+
 
     public SwerveSubsystem(File directory) {
         if (DriverStation.getAlliance().orElse(null) == DriverStation.Alliance.Red) { //TODO: add exception handling for no alliance found
@@ -116,14 +134,8 @@ public class SwerveSubsystem extends SubsystemBase {
 
         swerveDrive.pushOffsetsToEncoders();
 
-        if (useVision) {
-            limelightSetup();
-            //stop odometry thread when using vision so updates can be synchronized better
-            swerveDrive.stopOdometryThread();
-
+        initDrive();
 
-            
-        }
         setupPathPlanner();
 
         
@@ -141,6 +153,67 @@ public class SwerveSubsystem extends SubsystemBase {
          * Change this so the initial pose is fetched from the limelight and/or pathplanner path on startup
          */
         swerveDrive = new SwerveDrive(driveCfg, controllerCfg, SwerveConstants.MAX_SPEED, startingPose);//new Pose2d(new Translation2d(Meter.of(16.38), Meter.of(6.03)), Rotation2d.fromDegrees(0)));
+        initDrive();
+    }
+
+    /**
+     * Setup shared by both constructors, once swerveDrive exists: odometry rate, gyro sampling, CAN frame
+     * rates and the maple-sim drivetrain.
+     */
+    private void initDrive() {
+        // Odometry runs on YAGSL's own thread at a higher rate than the robot loop. Vision measurements are
+        // added under the same odometry lock and replayed by the pose estimator from its timestamped history,
+        // so vision no longer needs the thread stopped.
+        swerveDrive.setOdometryPeriod(SwerveConstants.ODOMETRY_PERIOD);
+
+        gyroSampler = new GyroSampler((Pigeon2) swerveDrive.getGyro().getIMU(), SwerveConstants.GYRO_SAMPLE_HZ,
+                                      SwerveConstants.GYRO_HISTORY_SECONDS);
+        configureCanFrames();
+
+        // The arena is stepped from YAGSL's odometry thread, at the odometry period set above
+        mapleSimDrive = swerveDrive.getMapleSimDrive().orElse(null);
+    }
+
+    /**
+     * Declare what odometry, module control and Vision read from the module SparkMaxes and the Pigeon2, on top
+     * of the configuration YAGSL already sent. Module positions go out every odometry period, so each run of the
+     * odometry thread sees a fresh one.
+     */
+    private void configureCanFrames() {
+        for (SwerveModule module : swerveDrive.getModules()) {
+            if (module.getDriveMotor().getMotor() instanceof SparkMax drive) {
+                SparkMaxConfig config = new SparkMaxConfig();
+                CanBandwidthManager.spark("Drive " + module.moduleNumber, drive.getDeviceId())
+                    .consume(SparkSignal.PRIMARY_POSITION, CanConstants.kOdometryPeriodMs)
+                    .consume(SparkSignal.PRIMARY_VELOCITY, CanConstants.kControlPeriodMs)
+                    .consume(SparkSignal.APPLIED_OUTPUT, CanConstants.kTelemetryPeriodMs)
+                    .consume(SparkSignal.BUS_VOLTAGE, CanConstants.kTelemetryPeriodMs)
+                    .consume(SparkSignal.FAULTS, CanConstants.kHealthPeriodMs)
+                    .consume(SparkSignal.WARNINGS, CanConstants.kHealthPeriodMs)
+                    .applyTo(config);
+                drive.configure(config, ResetMode.kNoResetSafeParameters, PersistMode.kNoPersistParameters);
+            }
+            if (module.getAngleMotor().getMotor() instanceof SparkMax angle) {
+                SparkMaxConfig config = new SparkMaxConfig();
+                CanBandwidthManager.spark("Angle " + module.moduleNumber, angle.getDeviceId())
+                    .consume(SparkSignal.PRIMARY_POSITION, CanConstants.kOdometryPeriodMs)
+                    .consume(SparkSignal.PRIMARY_VELOCITY, CanConstants.kTelemetryPeriodMs)
+                    .consume(SparkSignal.APPLIED_OUTPUT, CanConstants.kTelemetryPeriodMs)
+                    .consume(SparkSignal.FAULTS, CanConstants.kHealthPeriodMs)
+                    .consume(SparkSignal.WARNINGS, CanConstants.kHealthPeriodMs)
+                    .applyTo(config);
+                angle.configure(config, ResetMode.kNoResetSafeParameters, PersistMode.kNoPersistParameters);
+            }
+        }
+
+        // YAGSL reads the heading for odometry itself, everything else goes through the GyroSampler
+        Pigeon2 pigeon = (Pigeon2) swerveDrive.getGyro().getIMU();
+        CanBandwidthManager.pigeon("Pigeon", pigeon)
+            .consume(CanConstants.kPigeonOrientationHz,
+                     pigeon.getQuatW(), pigeon.getQuatX(), pigeon.getQuatY(), pigeon.getQuatZ(),
+                     pigeon.getAngularVelocityZWorld())
+            .consume(SwerveConstants.GYRO_SAMPLE_HZ, gyroSampler.getSignals())
+            .optimizeOthers();
     }
 
     private int outOfAreaReading = 0;
@@ -148,18 +221,30 @@ public class SwerveSubsystem extends SubsystemBase {
 
     @Override
     public void periodic() {
-        if (useVision) {
-            //swerveDrive.updateOdometry();
-            //vision.updatePoseEstimation(swerveDrive);
-            updatePoseEstimation();
-        }
+        profile.begin();
+        // Vision is fused by the Vision subsystem, see Vision.periodic()
 
         //swerveDrive.updateOdometry();
 
         //swerveDrive.getPose
         publisher.set(swerveDrive.getPose());
         //arrayPublisher.set(new)
-        
+
+        GyroSampler.Snapshot gyro = gyroSampler.getSnapshot();
+        gyroYawRateLog.set(gyro.yawRateDegPerSec());
+        gyroPitchLog.set(gyro.pitchDeg());
+        gyroRollLog.set(gyro.rollDeg());
+        gyroAgeLog.set(Timer.getFPGATimestamp() - gyro.timestampSeconds());
+        gyroValidLog.set(gyro.valid());
+        profile.end();
+    }
+
+    @Override
+    public void simulationPeriodic() {
+        if (mapleSimDrive != null) {
+            truePoseLog.set(mapleSimDrive.getSimulatedDriveTrainPose());
+            trueSpeedsLog.set(mapleSimDrive.getDriveTrainSimulatedChassisSpeedsFieldRelative());
+        }
     }
 
 
@@ -243,6 +328,14 @@ public Pose2d getPose() {
     return swerveDrive.getPose();
 }
 
+/**
+ * Where the robot actually is. In simulation this is the maple-sim drivetrain's pose, which odometry only
+ * estimates; on the robot there is no ground truth, so this is the odometry pose.
+ */
+public Pose2d getTruePose() {
+    return mapleSimDrive != null ? mapleSimDrive.getSimulatedDriveTrainPose() : getPose();
+}
+
 public Rotation2d getHeading() {
     return getPose().getRotation();
 }
@@ -295,6 +388,21 @@ public void drive(Translation2d translation, double rotation, boolean fieldRelat
                       false); // Open loop is disabled since it shouldn't be used most of the time.
   }
   
+  /**
+   * @return the latest Pigeon readings, shared with every other consumer and free to call
+   */
+public GyroSampler.Snapshot getGyroSnapshot() {
+    return gyroSampler.getSnapshot();
+}
+
+  /**
+   * @param timestampSeconds FPGA time, e.g. when a camera frame was captured
+   * @return the yaw rate at that time in degrees per second, from the gyro sample history
+   */
+public double getYawRateAt(double timestampSeconds) {
+    return gyroSampler.getYawRateAt(timestampSeconds);
+}
+
 public void zeroGyro() {
     swerveDrive.zeroGyro();
 }
@@ -303,83 +411,18 @@ public void resetOdometry(Pose2d initialHolonomicPose){
   swerveDrive.resetOdometry(initialHolonomicPose);
 }
 
-public void limelightSetup() {
-    swerveDrive.stopOdometryThread();
-    limelight = new Limelight("limelight");
-    limelight.getSettings()
-             .withPipelineIndex(0)
-             .withCameraOffset(VisionConstants.LIMELIGHT_POSE)
-             .save();
-    
-    limelightPoseEstimator = limelight.getPoseEstimator(true);
-            
+  /**
+   * Add a vision measurement to the pose estimator. Safe to call while the odometry thread is running.
+   *
+   * @param visionPose       Field-relative robot pose from vision
+   * @param timestampSeconds FPGA timestamp the image was captured at
+   * @param stdDevs          Std devs (x, y, theta) for this measurement
+   */
+public void addVisionMeasurement(Pose2d visionPose, double timestampSeconds, Matrix<N3, N1> stdDevs) {
+    // Std devs are passed with the measurement so the odometry thread never sees them half-applied
+    swerveDrive.addVisionMeasurement(visionPose, timestampSeconds, stdDevs);
 }
 
-public void updatePoseEstimation() {
-    limelight.getSettings()
-    .withRobotOrientation(new Orientation3d(swerveDrive.getGyro().getRotation3d(),
-        new AngularVelocity3d(DegreesPerSecond.of(((Pigeon2) swerveDrive.getGyro().getIMU()).getAngularVelocityXDevice().getValueAsDouble()),
-                              DegreesPerSecond.of(((Pigeon2) swerveDrive.getGyro().getIMU()).getAngularVelocityYDevice().getValueAsDouble()),
-                              DegreesPerSecond.of(((Pigeon2) swerveDrive.getGyro().getIMU()).getAngularVelocityZDevice().getValueAsDouble()))))
-             
-             .save();
-
-    poseEstimates = limelightPoseEstimator.getPoseEstimate();
-    Optional<LimelightResults> results = limelight.getLatestResults();
-
-    poseEstimates.ifPresent((PoseEstimate poseEstimate) -> {
-        if (poseEstimates.get().tagCount > 0) {
-            // Add it to the pose estimator as long as robot is rotating at less than 720 degrees per second
-            if (Math.abs(((Pigeon2) swerveDrive.getGyro().getIMU()).getAngularVelocityYDevice().getValueAsDouble()) < Math.toRadians(720)){
-                
-                //SmartDashboard.putData("visionpose", (Sendable) poseEstimate.pose.toPose2d());
-                swerveDrive.setVisionMeasurementStdDevs(VecBuilder.fill(0.05, 0.05, 0.022));
-                swerveDrive.addVisionMeasurement(poseEstimate.pose.toPose2d(), poseEstimate.timestampSeconds);
-            }
-        }
-    });
-/*
-    if (results.isPresent()) {
-        LimelightResults result = results.get();
-        PoseEstimate poseEstimate = poseEstimates.get();
-        SmartDashboard.putNumber("Avg Tag Ambiguity", poseEstimate.getAvgTagAmbiguity());
-        SmartDashboard.putNumber("Min Tag Ambiguity", poseEstimate.getMinTagAmbiguity());
-        SmartDashboard.putNumber("Max Tag Ambiguity", poseEstimate.getMaxTagAmbiguity());
-        SmartDashboard.putNumber("Avg Distance", poseEstimate.avgTagDist);
-        SmartDashboard.putNumber("Avg Tag Area", poseEstimate.avgTagArea);
-        SmartDashboard.putNumber("Odom Pose/x", swerveDrive.getPose().getX());
-        SmartDashboard.putNumber("Odom Pose/y", swerveDrive.getPose().getY());
-        SmartDashboard.putNumber("Odom Pose/degrees", swerveDrive.getPose().getRotation().getDegrees());
-        SmartDashboard.putNumber("Limelight Pose/x", poseEstimate.pose.getX());
-        SmartDashboard.putNumber("Limelight Pose/y", poseEstimate.pose.getY());
-        SmartDashboard.putNumber("Limelight Pose/degrees", poseEstimate.pose.toPose2d().getRotation().getDegrees());
-        if (result.valid) {
-            Pose2d blueSidePose = result.getBotPose2d(Alliance.Blue);
-            
-
-            //SmartDashboard.putData("visionpose", Sendable<blueSidePose>);
-            //double distanceToPose = blueSidePose.getTranslation().getDistance(swerveDrive.getPose().getTranslation());
-            if (poseEstimate.tagCount > 0) {
-                visionpublisher.set(blueSidePose);
-                swerveDrive.setVisionMeasurementStdDevs(VecBuilder.fill(0.05, 0.05, 0.022));
-                swerveDrive.addVisionMeasurement(blueSidePose, Timer.getTimestamp());
-            }
-            if (distanceToPose < 0.5 || (outOfAreaReading > 10) || (outOfAreaReading > 10 && !initialReading)) {
-                if (!initialReading) {
-                    initialReading = true;
-                }
-                outOfAreaReading = 0;
-                swerveDrive.setVisionMeasurementStdDevs(VecBuilder.fill(0.05, 0.05, 0.022));
-                swerveDrive.addVisionMeasurement(blueSidePose, Timer.getTimestamp());
-            } else {
-                outOfAreaReading += 1;
-            }
-        
-        }
-    }*/
-    swerveDrive.updateOdometry();
-    
-}
 /*
 public void updateRobotOrientation(SwerveDrive swerveDrive) {
         limelight.getSettings().withRobotOrientation(new Orientation3d(swerveDrive.getGyro().getRotation3d(),
@@ -0,0 +1,77 @@
+package frc.robot.subsystems.vision;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.util.Units;
+import edu.wpi.first.wpilibj.DriverStation;
+import frc.robot.Constants.VisionConstants;
+
+/**
+ * One camera entry from deploy/vision/cameras.json. Offsets are robot-relative, in meters and degrees, the
+ * same convention as {@link frc.robot.Constants.VisionConstants#LIMELIGHT_POSE}.
+ */
+public class CameraConfig {
+    public String name;
+    public int pipeline = 0;
+    public double x;
+    public double y;
+    public double z;
+    public double roll;
+    public double pitch;
+    public double yaw;
+
+    /** Top level of cameras.json. */
+    public static class CamerasFile {
+        public CameraConfig[] cameras = new CameraConfig[0];
+    }
+
+    /**
+     * @return camera pose relative to the robot
+     */
+    public Pose3d toPose3d() {
+        return new Pose3d(x, y, z, new Rotation3d(Units.degreesToRadians(roll),
+                                                  Units.degreesToRadians(pitch),
+                                                  Units.degreesToRadians(yaw)));
+    }
+
+    /**
+     * Load every camera from a config file. If the file is missing, malformed or lists no cameras, warn on the
+     * Driver Station and fall back to the single default camera at
+     * {@link frc.robot.Constants.VisionConstants#LIMELIGHT_POSE}, so a bad deploy doesn't stop the robot
+     * from starting.
+     *
+     * @param file JSON file, usually deploy/vision/cameras.json
+     * @return configured cameras
+     */
+    public static CameraConfig[] load(File file) {
+        try {
+            CameraConfig[] cameras = new ObjectMapper().readValue(file, CamerasFile.class).cameras;
+            if (cameras != null && cameras.length > 0) {
+                return cameras;
+            }
+            DriverStation.reportWarning("No cameras in " + file + ", using the default Limelight", false);
+        } catch (IOException e) {
+            DriverStation.reportWarning("Couldn't read " + file + ", using the default Limelight: "
+                                        + e.getMessage(), false);
+        }
+        return new CameraConfig[] {defaultCamera()};
+    }
+
+    private static CameraConfig defaultCamera() {
+        Pose3d pose = VisionConstants.LIMELIGHT_POSE;
+        CameraConfig camera = new CameraConfig();
+        camera.name = VisionConstants.kDefaultCameraName;
+        camera.x = pose.getX();
+        camera.y = pose.getY();
+        camera.z = pose.getZ();
+        camera.roll = Units.radiansToDegrees(pose.getRotation().getX());
+        camera.pitch = Units.radiansToDegrees(pose.getRotation().getY());
+        camera.yaw = Units.radiansToDegrees(pose.getRotation().getZ());
+        return camera;
+    }
+}
@@ -0,0 +1,72 @@
+package frc.robot.subsystems.vision;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import limelight.networktables.PoseEstimate;
+
+/**
+ * Bounded, lock-free single-producer/single-consumer queue of vision estimates.
+ *
+ * <p>The NetworkTables listener thread is the only producer and the main robot loop is the only consumer.
+ * When the queue is full the incoming estimate is dropped, since the consumer drains it every loop.
+ */
+public class PoseEstimateQueue {
+    private final AtomicReferenceArray<PoseEstimate> slots;
+    private final int mask;
+    // next slot to read, only advanced by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // next slot to write, only advanced by the producer
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity Maximum queued estimates, rounded up to a power of two
+     */
+    public PoseEstimateQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Add an estimate. Producer thread only.
+     *
+     * @param estimate Estimate to hand to the main loop
+     * @return false if the queue was full and the estimate was dropped
+     */
+    public boolean offer(PoseEstimate estimate) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        slots.lazySet((int) (t & mask), estimate);
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Take the oldest estimate. Consumer thread only.
+     *
+     * @return the estimate, or null if the queue is empty
+     */
+    public PoseEstimate poll() {
+        long h = head.get();
+        if (h >= tail.get()) {
+            return null;
+        }
+        int index = (int) (h & mask);
+        PoseEstimate estimate = slots.get(index);
+        slots.lazySet(index, null);
+        head.lazySet(h + 1);
+        return estimate;
+    }
+
+    /**
+     * @return number of estimates dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,169 @@
+package frc.robot.subsystems.vision;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.networktables.DoubleArrayPublisher;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.Constants.VisionConstants;
+
+/**
+ * Publishes synthetic MegaTag2 estimates into the same NetworkTables entry a real Limelight uses
+ * (botpose_orb_wpiblue), so the whole ingest/trust/fusion path runs in simulation.
+ *
+ * <p>Tags from the field layout are visible when they are inside the camera's FOV and range and face the
+ * camera. Frames are held back by the configured latency before publishing, get distance-scaled Gaussian
+ * noise, and are randomly dropped.
+ */
+public class SimulatedLimelight {
+    // botpose array layout: 11 header values, then 7 values per tag
+    private static final int kHeaderLength = 11;
+    private static final int kValuesPerTag = 7;
+
+    /** A captured frame waiting out its latency. */
+    private static class Frame {
+        final double publishTime;
+        final double[] botpose;
+
+        Frame(double publishTime, double[] botpose) {
+            this.publishTime = publishTime;
+            this.botpose = botpose;
+        }
+    }
+
+    private final Transform3d robotToCamera;
+    private final AprilTagFieldLayout fieldLayout;
+    private final Supplier<Pose2d> truePose;
+    private final DoubleArrayPublisher botposePublisher;
+
+    private final double latencyMs;
+    private final double noisePerMeter;
+    private final double dropoutProbability;
+
+    private final Random random = new Random();
+    private final ArrayDeque<Frame> pending = new ArrayDeque<>();
+
+    /**
+     * @param name               NetworkTables name of the Limelight being simulated
+     * @param cameraOffset       Camera pose relative to the robot
+     * @param fieldLayout        AprilTag layout to render
+     * @param truePose           Ground-truth robot pose
+     * @param latencyMs          Capture to publish latency
+     * @param noisePerMeter      XY noise std dev per meter of average tag distance
+     * @param dropoutProbability Chance of a frame being dropped
+     */
+    public SimulatedLimelight(String name,
+                              Pose3d cameraOffset,
+                              AprilTagFieldLayout fieldLayout,
+                              Supplier<Pose2d> truePose,
+                              double latencyMs,
+                              double noisePerMeter,
+                              double dropoutProbability) {
+        this.robotToCamera = new Transform3d(cameraOffset.getTranslation(), cameraOffset.getRotation());
+        this.fieldLayout = fieldLayout;
+        this.truePose = truePose;
+        this.latencyMs = latencyMs;
+        this.noisePerMeter = noisePerMeter;
+        this.dropoutProbability = dropoutProbability;
+        botposePublisher = NetworkTableInstance.getDefault()
+                                               .getTable(name)
+                                               .getDoubleArrayTopic("botpose_orb_wpiblue")
+                                               .publish();
+    }
+
+    /**
+     * Capture a frame and publish any frames whose latency has elapsed. Call from simulationPeriodic().
+     */
+    public void update() {
+        double now = Timer.getFPGATimestamp();
+        if (random.nextDouble() >= dropoutProbability) {
+            pending.add(new Frame(now + latencyMs / 1000.0, capture(truePose.get())));
+        }
+        while (!pending.isEmpty() && pending.peek().publishTime <= now) {
+            botposePublisher.set(pending.poll().botpose);
+        }
+    }
+
+    private double[] capture(Pose2d robotPose) {
+        Pose3d robotPose3d = new Pose3d(robotPose);
+        Pose3d cameraPose = robotPose3d.transformBy(robotToCamera);
+
+        double[] tagValues = new double[fieldLayout.getTags().size() * kValuesPerTag];
+        int tagCount = 0;
+        double distanceSum = 0;
+        double areaSum = 0;
+        double minX = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+
+        for (AprilTag tag : fieldLayout.getTags()) {
+            Translation3d inCamera = tag.pose.relativeTo(cameraPose).getTranslation();
+            double distance = inCamera.getNorm();
+            double tx = Math.toDegrees(Math.atan2(inCamera.getY(), inCamera.getX()));
+            double ty = Math.toDegrees(Math.atan2(inCamera.getZ(), inCamera.getX()));
+            // The tag's +X axis points out of its face, so it must point back towards the camera
+            Translation3d tagToCamera = cameraPose.getTranslation().minus(tag.pose.getTranslation());
+            Translation3d tagNormal = new Translation3d(1, 0, 0).rotateBy(tag.pose.getRotation());
+            boolean facing = tagToCamera.getX() * tagNormal.getX()
+                           + tagToCamera.getY() * tagNormal.getY()
+                           + tagToCamera.getZ() * tagNormal.getZ() > 0;
+            if (inCamera.getX() <= 0 || !facing ||
+                distance > VisionConstants.kSimMaxRangeMeters ||
+                Math.abs(tx) > VisionConstants.kSimHorizontalFOVDeg / 2 ||
+                Math.abs(ty) > VisionConstants.kSimVerticalFOVDeg / 2) {
+                continue;
+            }
+
+            // Rough percent-of-image area for a 6.5 in tag
+            double area = 100 * VisionConstants.kSimTagAreaAtOneMeter / (distance * distance);
+            int offset = tagCount * kValuesPerTag;
+            tagValues[offset] = tag.ID;
+            tagValues[offset + 1] = -tx; // Limelight tx is positive to the right
+            tagValues[offset + 2] = ty;
+            tagValues[offset + 3] = area;
+            tagValues[offset + 4] = distance;
+            tagValues[offset + 5] = tag.pose.getTranslation().getDistance(robotPose3d.getTranslation());
+            tagValues[offset + 6] = 0; // ambiguity is filled in below once the tag count is known
+            tagCount++;
+            distanceSum += distance;
+            areaSum += area;
+            minX = Math.min(minX, tx);
+            maxX = Math.max(maxX, tx);
+            minY = Math.min(minY, ty);
+            maxY = Math.max(maxY, ty);
+        }
+
+        double[] botpose = new double[kHeaderLength + tagCount * kValuesPerTag];
+        if (tagCount == 0) {
+            return botpose;
+        }
+        for (int i = 0; i < tagCount; i++) {
+            tagValues[i * kValuesPerTag + 6] = tagCount == 1 ? VisionConstants.kSimSingleTagAmbiguity : 0;
+        }
+        System.arraycopy(tagValues, 0, botpose, kHeaderLength, tagCount * kValuesPerTag);
+
+        double avgDistance = distanceSum / tagCount;
+        double noise = noisePerMeter * avgDistance;
+        botpose[0] = robotPose.getX() + random.nextGaussian() * noise;
+        botpose[1] = robotPose.getY() + random.nextGaussian() * noise;
+        botpose[2] = 0;
+        botpose[3] = 0;
+        botpose[4] = 0;
+        botpose[5] = robotPose.getRotation().getDegrees(); // MegaTag2 yaw comes from the robot orientation
+        botpose[6] = latencyMs;
+        botpose[7] = tagCount;
+        botpose[8] = Math.hypot(maxX - minX, maxY - minY);
+        botpose[9] = avgDistance;
+        botpose[10] = areaSum / tagCount;
+        return botpose;
+    }
+}
@@ -1,121 +1,178 @@
 package frc.robot.subsystems.vision;
 
-import static edu.wpi.first.units.Units.DegreesPerSecond;
-import static edu.wpi.first.units.Units.Microseconds;
-import static edu.wpi.first.units.Units.Milliseconds;
-import static edu.wpi.first.units.Units.Seconds;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 import edu.wpi.first.apriltag.AprilTagFieldLayout;
 import edu.wpi.first.apriltag.AprilTagFields;
 import edu.wpi.first.math.Matrix;
-import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.geometry.Pose2d;
-import edu.wpi.first.math.geometry.Pose3d;
-import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.geometry.Rotation3d;
-import edu.wpi.first.math.geometry.Transform2d;
-import edu.wpi.first.math.geometry.Transform3d;
-import edu.wpi.first.math.geometry.Translation3d;
-import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
-import edu.wpi.first.math.kinematics.SwerveDriveOdometry3d;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N3;
-import edu.wpi.first.math.util.Units;
-import edu.wpi.first.networktables.NetworkTablesJNI;
-import edu.wpi.first.wpilibj.Alert;
-import edu.wpi.first.wpilibj.Alert.AlertType;
-import edu.wpi.first.wpilibj.smartdashboard.Field2d;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.StructPublisher;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
-import frc.robot.Robot;
 import frc.robot.Constants.VisionConstants;
+import frc.robot.subsystems.swerve.GyroSampler;
 import frc.robot.subsystems.swerve.SwerveSubsystem;
-
-import java.awt.Desktop;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.function.Supplier;
-
-import com.ctre.phoenix6.hardware.Pigeon2;
-
 import limelight.Limelight;
-import limelight.networktables.AngularVelocity3d;
-import limelight.networktables.LimelightPoseEstimator;
 import limelight.networktables.LimelightSettings;
-import limelight.networktables.Orientation3d;
-import limelight.networktables.PoseEstimate;
 import limelight.networktables.LimelightSettings.LEDMode;
-import swervelib.SwerveDrive;
-import swervelib.telemetry.SwerveDriveTelemetry;
-
-public class Vision {
-
-    Limelight limelight;
-    LimelightSettings limelightSettings;
-    LimelightPoseEstimator poseEstimator;
-
-    Orientation3d robotOrientation3d;
-    
-    public Pigeon2 getPigeon2(SwerveDrive swerveDrive) {
-        return (Pigeon2) swerveDrive.getGyro().getIMU();
-   }
-
-
-    public Vision(SwerveDrive swerveDrive) {
-        getPigeon2(swerveDrive).getAngularVelocityXDevice().setUpdateFrequency(50);
-        getPigeon2(swerveDrive).getAngularVelocityYDevice().setUpdateFrequency(50);
-        getPigeon2(swerveDrive).getAngularVelocityZDevice().setUpdateFrequency(50);
-
-        limelight = new Limelight("limelight");
-        limelight.getSettings().withLimelightLEDMode(LEDMode.PipelineControl)
-                                .withCameraOffset(VisionConstants.LIMELIGHT_POSE)/* */
-                                .withRobotOrientation(new Orientation3d(swerveDrive.getGyro().getRotation3d(),
-                                                                       new AngularVelocity3d(DegreesPerSecond.of(getPigeon2(swerveDrive).getAngularVelocityXDevice().getValueAsDouble()),
-                                                                                             DegreesPerSecond.of(getPigeon2(swerveDrive).getAngularVelocityYDevice().getValueAsDouble()),
-                                                                                             DegreesPerSecond.of(getPigeon2(swerveDrive).getAngularVelocityZDevice().getValueAsDouble()))))
-                                .withImuMode(LimelightSettings.ImuMode.InternalImu)
-                                .save();
-    }
+import limelight.networktables.PoseEstimate;
 
-    public void updatePoseEstimation(SwerveDrive swerveDrive) {
+/**
+ * Manages every Limelight listed in deploy/vision/cameras.json and fuses their estimates into the drive.
+ *
+ * <p>Each camera has its own {@link VisionIngestor} (parsing off the main loop) and {@link VisionTrustModel}.
+ * Once per loop all queues are drained, accepted estimates from every camera are sorted by timestamp and
+ * added to the drive's pose estimator in one batch.
+ */
+public class Vision extends SubsystemBase {
+
+    /** An accepted estimate waiting to be applied, reused between loops. */
+    private static class PendingMeasurement {
+        Pose2d pose;
+        double timestampSeconds;
+        Matrix<N3, N1> stdDevs;
+    }
 
-        //update robot orientation
+    private static final Comparator<PendingMeasurement> BY_TIMESTAMP =
+        Comparator.comparingDouble(measurement -> measurement.timestampSeconds);
+
+    private final SwerveSubsystem drive;
+
+    private final String[] cameraNames;
+    private final Limelight[] limelights;
+    private final VisionIngestor[] ingestors;
+    private final VisionTrustModel[] trustModels;
+    // Only created in simulation, publishing into the same entries the Limelights read
+    private final SimulatedLimelight[] simulatedCameras;
+
+    private final PendingMeasurement[] pool;
+    private final List<PendingMeasurement> batch;
+
+    // FPGA time an estimate was last added to the drive
+    private double lastAcceptedTime = Double.NEGATIVE_INFINITY;
+
+    private final StructPublisher<Pose2d> visionPublisher =
+        NetworkTableInstance.getDefault().getStructTopic("vision pose", Pose2d.struct).publish();
+
+    /**
+     * @param drive      Drive whose pose estimator receives the measurements
+     * @param configFile Camera config, usually deploy/vision/cameras.json
+     */
+    public Vision(SwerveSubsystem drive, File configFile) {
+        this.drive = drive;
+
+        AprilTagFieldLayout fieldLayout = AprilTagFieldLayout.loadField(AprilTagFields.k2025ReefscapeAndyMark);
+
+        CameraConfig[] cameras = CameraConfig.load(configFile);
+        cameraNames = new String[cameras.length];
+        limelights = new Limelight[cameras.length];
+        ingestors = new VisionIngestor[cameras.length];
+        trustModels = new VisionTrustModel[cameras.length];
+        simulatedCameras = new SimulatedLimelight[RobotBase.isSimulation() ? cameras.length : 0];
+        for (int i = 0; i < cameras.length; i++) {
+            cameraNames[i] = cameras[i].name;
+            limelights[i] = new Limelight(cameras[i].name);
+            limelights[i].getSettings()
+                         .withLimelightLEDMode(LEDMode.PipelineControl)
+                         .withPipelineIndex(cameras[i].pipeline)
+                         .withCameraOffset(cameras[i].toPose3d())
+                         .withImuMode(LimelightSettings.ImuMode.InternalImu)
+                         .save();
+            ingestors[i] = new VisionIngestor(limelights[i], cameras[i].name, VisionConstants.kEstimateQueueCapacity);
+            trustModels[i] = new VisionTrustModel(fieldLayout.getFieldLength(), fieldLayout.getFieldWidth());
+            if (RobotBase.isSimulation()) {
+                simulatedCameras[i] = new SimulatedLimelight(cameras[i].name,
+                                                             cameras[i].toPose3d(),
+                                                             fieldLayout,
+                                                             drive::getTruePose,
+                                                             VisionConstants.kSimLatencyMs,
+                                                             VisionConstants.kSimNoisePerMeter,
+                                                             VisionConstants.kSimDropoutProbability);
+            }
+        }
 
-        updateRobotOrientation(swerveDrive);
+        pool = new PendingMeasurement[cameras.length * VisionConstants.kEstimateQueueCapacity];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = new PendingMeasurement();
+        }
+        batch = new ArrayList<>(pool.length);
+    }
 
-        // Get MegaTag2 pose
-        Optional<PoseEstimate> visionEstimate = limelight.getPoseEstimator(true).getPoseEstimate();
-        // If the pose is present
-        visionEstimate.ifPresent((PoseEstimate poseEstimate) -> {
-            if (visionEstimate.get().tagCount > 0) {
-                // Add it to the pose estimator as long as robot is rotating at less than 720 degrees per second
-                if (Math.abs(getPigeon2(swerveDrive).getAngularVelocityYDevice().getValueAsDouble()) < Math.toRadians(720)){
-                    //poseEstimator.setVisionMeasurementStdDevs(VecBuilder.fill(.7,.7,9999999)); no stddevs as for some reason yall does not (seemingly) support setting stddevs for vision measurements yet
-                    swerveDrive.addVisionMeasurement(poseEstimate.pose.toPose2d(), poseEstimate.timestampSeconds);
+    @Override
+    public void periodic() {
+        // MegaTag2 needs the robot orientation every loop. Yaw is the field-relative heading from the pose
+        // estimator; pitch, roll and the rates come from the shared gyro snapshot, so no CAN reads here.
+        Pose2d odometryPose = drive.getPose();
+        GyroSampler.Snapshot gyro = drive.getGyroSnapshot();
+        double yawDeg = odometryPose.getRotation().getDegrees();
+        double pitchDeg = gyro.pitchDeg();
+        double rollDeg = gyro.rollDeg();
+        double yawRateDegPerSec = gyro.yawRateDegPerSec();
+        double pitchRateDegPerSec = gyro.pitchRateDegPerSec();
+        double rollRateDegPerSec = gyro.rollRateDegPerSec();
+
+        batch.clear();
+        for (int i = 0; i < ingestors.length; i++) {
+            ingestors[i].setRobotOrientation(yawDeg, yawRateDegPerSec,
+                                             pitchDeg, pitchRateDegPerSec,
+                                             rollDeg, rollRateDegPerSec);
+
+            // Estimates were parsed on the NetworkTables listener thread
+            PoseEstimateQueue queue = ingestors[i].getQueue();
+            for (PoseEstimate estimate = queue.poll(); estimate != null; estimate = queue.poll()) {
+                if (batch.size() == pool.length) {
+                    continue;
+                }
+                // Motion blur depends on how fast the robot was turning when the frame was captured, not now
+                double yawRateAtCapture = drive.getYawRateAt(estimate.timestampSeconds);
+                if (!trustModels[i].evaluate(estimate, odometryPose, yawRateAtCapture)) {
+                    continue;
                 }
+                PendingMeasurement measurement = pool[batch.size()];
+                measurement.pose = estimate.pose.toPose2d();
+                measurement.timestampSeconds = estimate.timestampSeconds;
+                measurement.stdDevs = trustModels[i].getStdDevs();
+                batch.add(measurement);
             }
-        });
+        }
+
+        // The pose estimator replays each one against its odometry history, oldest first
+        batch.sort(BY_TIMESTAMP);
+        for (int i = 0; i < batch.size(); i++) {
+            PendingMeasurement measurement = batch.get(i);
+            drive.addVisionMeasurement(measurement.pose, measurement.timestampSeconds, measurement.stdDevs);
+        }
+        if (!batch.isEmpty()) {
+            visionPublisher.set(batch.get(batch.size() - 1).pose);
+            lastAcceptedTime = Timer.getFPGATimestamp();
+        }
     }
 
-    public void getPoseEstimationMegatag1(SwerveDrive swerveDrive) {
-        // Get MegaTag1 pose
-        Optional<PoseEstimate> visionEstimate = limelight.getPoseEstimator(false).getPoseEstimate();
-        // If the pose is present
-        visionEstimate.ifPresent((PoseEstimate poseEstimate) -> {
-            if (visionEstimate.get().tagCount > 0) {
-                // Add it to the pose estimator as long as robot is rotating at less than 720 degrees per second
-                if (Math.abs(getPigeon2(swerveDrive).getAngularVelocityYDevice().getValueAsDouble()) < Math.toRadians(720)){
-                    //poseEstimator.setVisionMeasurementStdDevs(VecBuilder.fill(.7,.7,9999999)); no stddevs as for some reason yall does not (seemingly) support setting stddevs for vision measurements yet
-                    swerveDrive.addVisionMeasurement(poseEstimate.pose.toPose2d(), poseEstimate.timestampSeconds);
-                }
-            }
-        });
+    @Override
+    public void simulationPeriodic() {
+        for (SimulatedLimelight camera : simulatedCameras) {
+            camera.update();
+        }
+    }
+
+    /**
+     * @return whether an estimate from any camera was accepted in the last kLockedTimeoutSeconds
+     */
+    public boolean isLocked() {
+        return Timer.getFPGATimestamp() - lastAcceptedTime < VisionConstants.kLockedTimeoutSeconds;
     }
 
-    public void updateRobotOrientation(SwerveDrive swerveDrive) {
-        limelight.getSettings().withRobotOrientation(new Orientation3d(swerveDrive.getGyro().getRotation3d(),
-        new AngularVelocity3d(DegreesPerSecond.of(getPigeon2(swerveDrive).getAngularVelocityXDevice().getValueAsDouble()),
-                              DegreesPerSecond.of(getPigeon2(swerveDrive).getAngularVelocityYDevice().getValueAsDouble()),
-                              DegreesPerSecond.of(getPigeon2(swerveDrive).getAngularVelocityZDevice().getValueAsDouble()))));
+    /**
+     * @return names of the configured cameras, in config order
+     */
+    public String[] getCameraNames() {
+        return cameraNames;
     }
-}
\ No newline at end of file
+}
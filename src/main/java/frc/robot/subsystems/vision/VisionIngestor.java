@@ -0,0 +1,101 @@
+package frc.robot.subsystems.vision;
+
+import java.util.EnumSet;
+import java.util.Optional;
+
+import edu.wpi.first.networktables.DoubleArrayPublisher;
+import edu.wpi.first.networktables.DoubleArraySubscriber;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEvent;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import limelight.Limelight;
+import limelight.networktables.LimelightPoseEstimator;
+import limelight.networktables.PoseEstimate;
+
+/**
+ * Moves Limelight MegaTag2 parsing off the main robot loop.
+ *
+ * <p>A NetworkTables listener fires on the NT listener thread whenever the Limelight publishes a new
+ * MegaTag2 botpose. That thread parses the estimate, drops ones without tags and queues it in a {@link PoseEstimateQueue},
+ * which the drive drains in periodic(). The robot orientation MegaTag2 needs is published from the main loop
+ * through a preallocated publisher instead of a settings save().
+ */
+public class VisionIngestor implements AutoCloseable {
+    private final LimelightPoseEstimator poseEstimator;
+    private final PoseEstimateQueue queue;
+
+    private final DoubleArraySubscriber botposeSubscriber;
+    private final DoubleArrayPublisher orientationPublisher;
+    private final double[] orientation = new double[6];
+    private final int listenerHandle;
+
+    /**
+     * @param limelight     Limelight to ingest from
+     * @param name          NetworkTables name of the Limelight
+     * @param queueCapacity Maximum estimates buffered between loops
+     */
+    public VisionIngestor(Limelight limelight, String name, int queueCapacity) {
+        poseEstimator = limelight.getPoseEstimator(true);
+        queue = new PoseEstimateQueue(queueCapacity);
+
+        NetworkTableInstance inst = NetworkTableInstance.getDefault();
+        NetworkTable table = inst.getTable(name);
+        botposeSubscriber = table.getDoubleArrayTopic("botpose_orb_wpiblue").subscribe(new double[0]);
+        orientationPublisher = table.getDoubleArrayTopic("robot_orientation_set").publish();
+
+        listenerHandle = inst.addListener(botposeSubscriber,
+                                          EnumSet.of(NetworkTableEvent.Kind.kValueAll),
+                                          event -> ingest());
+    }
+
+    /**
+     * Runs on the NetworkTables listener thread for every new botpose.
+     */
+    private void ingest() {
+        Optional<PoseEstimate> estimate = poseEstimator.getPoseEstimate();
+        if (estimate.isEmpty()) {
+            return;
+        }
+        PoseEstimate poseEstimate = estimate.get();
+        // The rest of the filtering needs the current odometry pose and happens in VisionTrustModel
+        if (poseEstimate.tagCount > 0) {
+            queue.offer(poseEstimate);
+        }
+    }
+
+    /**
+     * Publish the robot orientation for MegaTag2. Call from the main loop with one gyro read per value.
+     *
+     * @param yawDeg             Robot yaw in degrees
+     * @param yawRateDegPerSec   Yaw rate in degrees per second
+     * @param pitchDeg           Pitch in degrees
+     * @param pitchRateDegPerSec Pitch rate in degrees per second
+     * @param rollDeg            Roll in degrees
+     * @param rollRateDegPerSec  Roll rate in degrees per second
+     */
+    public void setRobotOrientation(double yawDeg, double yawRateDegPerSec,
+                                    double pitchDeg, double pitchRateDegPerSec,
+                                    double rollDeg, double rollRateDegPerSec) {
+        orientation[0] = yawDeg;
+        orientation[1] = yawRateDegPerSec;
+        orientation[2] = pitchDeg;
+        orientation[3] = pitchRateDegPerSec;
+        orientation[4] = rollDeg;
+        orientation[5] = rollRateDegPerSec;
+        orientationPublisher.set(orientation);
+    }
+
+    /**
+     * @return the queue of filtered estimates, drained by the main loop
+     */
+    public PoseEstimateQueue getQueue() {
+        return queue;
+    }
+
+    @Override
+    public void close() {
+        NetworkTableInstance.getDefault().removeListener(listenerHandle);
+        botposeSubscriber.close();
+        orientationPublisher.close();
+    }
+}
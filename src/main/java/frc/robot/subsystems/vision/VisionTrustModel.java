@@ -0,0 +1,137 @@
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import frc.robot.Constants.VisionConstants;
+import limelight.networktables.PoseEstimate;
+
+/**
+ * Decides whether a vision estimate should be fused and how much to trust it.
+ *
+ * <p>Std devs grow with the square of the average tag distance, shrink with the number of tags and grow
+ * with ambiguity. Estimates are rejected when they are off the field, too far away, too ambiguous for a
+ * single tag, taken while spinning fast, or jump too far from odometry. A run of consecutive jump rejections
+ * is accepted anyway so a bad odometry pose can still be corrected. Nothing here touches hardware, so it
+ * can be driven directly with recorded estimates.
+ */
+public class VisionTrustModel {
+    public enum Rejection {
+        NONE,
+        NO_TAGS,
+        OFF_FIELD,
+        TOO_FAR,
+        AMBIGUOUS,
+        YAW_RATE,
+        JUMP
+    }
+
+    private final double fieldLengthMeters;
+    private final double fieldWidthMeters;
+
+    private int consecutiveJumps = 0;
+    private Rejection lastRejection = Rejection.NONE;
+    private double xyStdDev = 0;
+    private double thetaStdDev = 0;
+
+    /**
+     * @param fieldLengthMeters Field length, usually from the AprilTag layout
+     * @param fieldWidthMeters  Field width, usually from the AprilTag layout
+     */
+    public VisionTrustModel(double fieldLengthMeters, double fieldWidthMeters) {
+        this.fieldLengthMeters = fieldLengthMeters;
+        this.fieldWidthMeters = fieldWidthMeters;
+    }
+
+    /**
+     * Evaluate an estimate.
+     *
+     * @param estimate         The vision estimate
+     * @param odometryPose     Current fused pose, used for the jump check
+     * @param yawRateDegPerSec Robot yaw rate when the estimate was taken
+     * @return true if the estimate should be fused, using {@link #getStdDevs()}
+     */
+    public boolean evaluate(PoseEstimate estimate, Pose2d odometryPose, double yawRateDegPerSec) {
+        Pose3d pose = estimate.pose;
+        double ambiguity = estimate.tagCount > 0 ? estimate.getAvgTagAmbiguity() : 0;
+        return evaluate(pose.getX(), pose.getY(), pose.getZ(), estimate.tagCount, estimate.avgTagDist, ambiguity,
+                        odometryPose, yawRateDegPerSec);
+    }
+
+    /**
+     * Evaluate an estimate given by its fields.
+     *
+     * @param x                Estimated field X in meters
+     * @param y                Estimated field Y in meters
+     * @param z                Estimated height in meters, should be about 0
+     * @param tagCount         Number of tags the estimate used
+     * @param avgTagDistMeters Average distance to those tags
+     * @param avgAmbiguity     Average pose ambiguity of those tags, 0 to 1
+     * @param odometryPose     Current fused pose, used for the jump check
+     * @param yawRateDegPerSec Robot yaw rate when the estimate was taken
+     * @return true if the estimate should be fused, using {@link #getStdDevs()}
+     */
+    public boolean evaluate(double x, double y, double z, int tagCount, double avgTagDistMeters, double avgAmbiguity,
+                            Pose2d odometryPose, double yawRateDegPerSec) {
+        lastRejection = check(x, y, z, tagCount, avgTagDistMeters, avgAmbiguity, odometryPose, yawRateDegPerSec);
+        if (lastRejection != Rejection.NONE) {
+            return false;
+        }
+
+        double distanceSquared = avgTagDistMeters * avgTagDistMeters;
+        double ambiguityScale = 1 + VisionConstants.kAmbiguityStdDevScale * avgAmbiguity;
+        xyStdDev = VisionConstants.kBaseXYStdDev * distanceSquared * ambiguityScale / tagCount;
+        xyStdDev = Math.max(xyStdDev, VisionConstants.kMinXYStdDev);
+        // MegaTag2 takes its heading from the gyro, so its rotation carries no new information
+        thetaStdDev = VisionConstants.kMegaTag2ThetaStdDev;
+        return true;
+    }
+
+    private Rejection check(double x, double y, double z, int tagCount, double avgTagDistMeters, double avgAmbiguity,
+                            Pose2d odometryPose, double yawRateDegPerSec) {
+        if (tagCount <= 0) {
+            return Rejection.NO_TAGS;
+        }
+        if (x < -VisionConstants.kFieldMarginMeters ||
+            x > fieldLengthMeters + VisionConstants.kFieldMarginMeters ||
+            y < -VisionConstants.kFieldMarginMeters ||
+            y > fieldWidthMeters + VisionConstants.kFieldMarginMeters ||
+            Math.abs(z) > VisionConstants.kMaxZErrorMeters) {
+            return Rejection.OFF_FIELD;
+        }
+        if (avgTagDistMeters > VisionConstants.kMaxTagDistanceMeters) {
+            return Rejection.TOO_FAR;
+        }
+        if (tagCount == 1 && avgAmbiguity > VisionConstants.kMaxSingleTagAmbiguity) {
+            return Rejection.AMBIGUOUS;
+        }
+        if (Math.abs(yawRateDegPerSec) > VisionConstants.kMaxYawRateDegPerSec) {
+            return Rejection.YAW_RATE;
+        }
+
+        double jump = Math.hypot(x - odometryPose.getX(), y - odometryPose.getY());
+        if (jump > VisionConstants.kMaxJumpMeters && consecutiveJumps < VisionConstants.kMaxConsecutiveJumps) {
+            consecutiveJumps++;
+            return Rejection.JUMP;
+        }
+        consecutiveJumps = 0;
+        return Rejection.NONE;
+    }
+
+    /**
+     * @return std devs (x, y, theta) for the last accepted estimate
+     */
+    public Matrix<N3, N1> getStdDevs() {
+        return VecBuilder.fill(xyStdDev, xyStdDev, thetaStdDev);
+    }
+
+    /**
+     * @return why the last estimate was rejected, or {@link Rejection#NONE} if it was accepted
+     */
+    public Rejection getLastRejection() {
+        return lastRejection;
+    }
+}
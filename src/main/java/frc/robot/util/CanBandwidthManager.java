@@ -0,0 +1,261 @@
+package frc.robot.util;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.hardware.Pigeon2;
+import com.revrobotics.spark.config.SignalsConfig;
+import com.revrobotics.spark.config.SparkMaxConfig;
+
+import edu.wpi.first.hal.can.CANStatus;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.RobotController;
+import frc.robot.Constants.CanConstants;
+
+/**
+ * Central place for CAN status frame rates. Each subsystem declares the signals it actually reads from each
+ * device and how often; everything it doesn't read is slowed down, so the bus only carries what's used.
+ *
+ * <p>SparkMax signals are applied through the device's {@link SparkMaxConfig}, so they go out with the rest of
+ * its configuration. Pigeon2 signals are set directly and the rest optimized down to
+ * {@link CanConstants#kUnusedPhoenixFrequencyHz}. Every declaration is recorded, and {@link #report()} logs
+ * the resulting frame rates and estimated bus load once everything is configured.
+ */
+public final class CanBandwidthManager {
+
+    /**
+     * SparkMax signals, with the status frame each one is sent in and that frame's default period. A frame goes
+     * out at the fastest period of any signal in it, so slowing a frame means slowing every signal in it.
+     */
+    public enum SparkSignal {
+        APPLIED_OUTPUT(0),   // Also what followers follow, keep it fast on leaders
+        BUS_VOLTAGE(0),
+        OUTPUT_CURRENT(0),
+        MOTOR_TEMPERATURE(0),
+        LIMITS(0),
+        FAULTS(1),
+        WARNINGS(1),
+        PRIMARY_VELOCITY(2),
+        PRIMARY_POSITION(2),
+        ANALOG(3),
+        ALTERNATE_ENCODER(4),
+        ABSOLUTE_ENCODER(5),
+        I_ACCUMULATION(7);
+
+        private static final int kFrames = 8;
+        private static final int[] kDefaultFramePeriodsMs = {10, 250, 20, 50, 20, 200, 200, 250};
+
+        private final int frame;
+
+        SparkSignal(int frame) {
+            this.frame = frame;
+        }
+    }
+
+    /** A SparkMax and the signals declared for it. */
+    public static final class SparkDevice {
+        private final String name;
+        private final int canId;
+        private final Map<SparkSignal, Integer> periodsMs = new EnumMap<>(SparkSignal.class);
+
+        private SparkDevice(String name, int canId) {
+            this.name = name;
+            this.canId = canId;
+        }
+
+        /**
+         * Declare a signal this device's owner reads.
+         *
+         * @param signal   signal read
+         * @param periodMs how often it needs to be fresh
+         * @return this device, for chaining
+         */
+        public SparkDevice consume(SparkSignal signal, int periodMs) {
+            periodsMs.merge(signal, periodMs, Math::min);
+            return this;
+        }
+
+        /**
+         * Write every signal period into the config: the declared ones at their period, the rest at
+         * {@link CanConstants#kUnusedSparkPeriodMs}. Call before configure().
+         *
+         * @param config the device's config
+         * @return the same config
+         */
+        public SparkMaxConfig applyTo(SparkMaxConfig config) {
+            SignalsConfig signals = config.signals;
+            for (SparkSignal signal : SparkSignal.values()) {
+                int period = periodMs(signal);
+                switch (signal) {
+                    case APPLIED_OUTPUT -> signals.appliedOutputPeriodMs(period);
+                    case BUS_VOLTAGE -> signals.busVoltagePeriodMs(period);
+                    case OUTPUT_CURRENT -> signals.outputCurrentPeriodMs(period);
+                    case MOTOR_TEMPERATURE -> signals.motorTemperaturePeriodMs(period);
+                    case LIMITS -> signals.limitsPeriodMs(period);
+                    case FAULTS -> signals.faultsPeriodMs(period);
+                    case WARNINGS -> signals.warningsPeriodMs(period);
+                    case PRIMARY_VELOCITY -> signals.primaryEncoderVelocityPeriodMs(period);
+                    case PRIMARY_POSITION -> signals.primaryEncoderPositionPeriodMs(period);
+                    case ANALOG -> signals.analogVoltagePeriodMs(period)
+                                          .analogVelocityPeriodMs(period)
+                                          .analogPositionPeriodMs(period);
+                    case ALTERNATE_ENCODER -> signals.externalOrAltEncoderVelocity(period)
+                                                     .externalOrAltEncoderPosition(period);
+                    case ABSOLUTE_ENCODER -> signals.absoluteEncoderVelocityPeriodMs(period)
+                                                    .absoluteEncoderPositionPeriodMs(period);
+                    case I_ACCUMULATION -> signals.iAccumulationPeriodMs(period);
+                }
+            }
+            return config;
+        }
+
+        private int periodMs(SparkSignal signal) {
+            return periodsMs.getOrDefault(signal, CanConstants.kUnusedSparkPeriodMs);
+        }
+
+        private double framesPerSecond() {
+            double total = 0;
+            for (int frame = 0; frame < SparkSignal.kFrames; frame++) {
+                int fastest = Integer.MAX_VALUE;
+                for (SparkSignal signal : SparkSignal.values()) {
+                    if (signal.frame == frame) {
+                        fastest = Math.min(fastest, periodMs(signal));
+                    }
+                }
+                // Frame 6 (absolute encoder raw readings) isn't declared here
+                if (fastest != Integer.MAX_VALUE) {
+                    total += 1000.0 / fastest;
+                }
+            }
+            return total;
+        }
+
+        private static double defaultFramesPerSecond() {
+            double total = 0;
+            for (int period : SparkSignal.kDefaultFramePeriodsMs) {
+                total += 1000.0 / period;
+            }
+            return total;
+        }
+    }
+
+    /** A Pigeon2 and the signals declared for it. */
+    public static final class PigeonDevice {
+        private final String name;
+        private final Pigeon2 pigeon;
+        private double framesPerSecond = 0;
+        private int signals = 0;
+
+        private PigeonDevice(String name, Pigeon2 pigeon) {
+            this.name = name;
+            this.pigeon = pigeon;
+        }
+
+        /**
+         * Declare signals that are read, and set them to update at frequencyHz.
+         *
+         * @param frequencyHz how often they need to be fresh
+         * @param consumed    signals read
+         * @return this device, for chaining
+         */
+        public PigeonDevice consume(double frequencyHz, BaseStatusSignal... consumed) {
+            BaseStatusSignal.setUpdateFrequencyForAll(frequencyHz, consumed);
+            // Counts each signal as its own frame, an upper bound since Phoenix packs related signals together
+            framesPerSecond += consumed.length * frequencyHz;
+            signals += consumed.length;
+            return this;
+        }
+
+        /**
+         * Turn every signal not declared with {@link #consume} down to
+         * {@link CanConstants#kUnusedPhoenixFrequencyHz}, so they still update, just rarely. Call last.
+         */
+        public void optimizeOthers() {
+            pigeon.optimizeBusUtilization(CanConstants.kUnusedPhoenixFrequencyHz, CanConstants.kConfigTimeoutSeconds);
+        }
+    }
+
+    private static final List<SparkDevice> sparks = new ArrayList<>();
+    private static final List<PigeonDevice> pigeons = new ArrayList<>();
+
+    private static final Telemetry.DoubleChannel estimatedUtilizationLog =
+        Telemetry.doubleChannel("CAN Estimated Utilization", false);
+
+    private CanBandwidthManager() {}
+
+    /**
+     * Start declaring the signals read from a SparkMax. Nothing consumed means every frame runs slow.
+     *
+     * @param name  name for the report
+     * @param canId CAN ID, for the report
+     * @return the device to declare signals on
+     */
+    public static SparkDevice spark(String name, int canId) {
+        SparkDevice device = new SparkDevice(name, canId);
+        sparks.add(device);
+        return device;
+    }
+
+    /**
+     * Start declaring the signals read from a Pigeon2.
+     *
+     * @param name   name for the report
+     * @param pigeon the Pigeon2
+     * @return the device to declare signals on
+     */
+    public static PigeonDevice pigeon(String name, Pigeon2 pigeon) {
+        PigeonDevice device = new PigeonDevice(name, pigeon);
+        pigeons.add(device);
+        return device;
+    }
+
+    /**
+     * @return estimated bus load from the declared devices, 0 to 1
+     */
+    public static double estimatedUtilization() {
+        double frames = 0;
+        for (SparkDevice spark : sparks) {
+            frames += spark.framesPerSecond();
+        }
+        for (PigeonDevice pigeon : pigeons) {
+            frames += pigeon.framesPerSecond;
+        }
+        return frames * CanConstants.kBitsPerFrame / CanConstants.kBusBitsPerSecond;
+    }
+
+    /**
+     * Log each declared device's frame rate and the estimated bus load, before and after, along with the
+     * load the RIO currently measures. Call once after every subsystem has been constructed.
+     */
+    public static void report() {
+        StringBuilder report = new StringBuilder("CAN status frames:\n");
+        double defaultFrames = 0;
+        for (SparkDevice spark : sparks) {
+            double frames = spark.framesPerSecond();
+            double defaults = SparkDevice.defaultFramesPerSecond();
+            defaultFrames += defaults;
+            report.append(String.format(Locale.ROOT, "  %-20s id %2d  %6.1f frames/s (default %6.1f)%n",
+                                        spark.name, spark.canId, frames, defaults));
+        }
+        for (PigeonDevice pigeon : pigeons) {
+            report.append(String.format(Locale.ROOT, "  %-20s id %2d  %6.1f frames/s (%d signals, at most)%n",
+                                        pigeon.name, pigeon.pigeon.getDeviceID(), pigeon.framesPerSecond,
+                                        pigeon.signals));
+            defaultFrames += pigeon.framesPerSecond;
+        }
+
+        double estimated = estimatedUtilization();
+        CANStatus status = RobotController.getCANStatus();
+        report.append(String.format(Locale.ROOT,
+                                    "  estimated %.1f%% of the bus (%.1f%% with default SparkMax frames), measured %.1f%%",
+                                    estimated * 100,
+                                    defaultFrames * CanConstants.kBitsPerFrame / CanConstants.kBusBitsPerSecond * 100,
+                                    status.percentBusUtilization * 100));
+        DataLogManager.log(report.toString());
+        estimatedUtilizationLog.set(estimated);
+    }
+}
@@ -0,0 +1,73 @@
+package frc.robot.util;
+
+import edu.wpi.first.math.controller.ElevatorFeedforward;
+import edu.wpi.first.math.interpolation.InterpolatingDoubleTreeMap;
+
+/**
+ * Elevator feedforward whose gains depend on carriage height and whether coral is loaded.
+ *
+ * <p>Each gain is an {@link InterpolatingDoubleTreeMap} keyed by height, one set per load state, so gains found
+ * by SysId runs at a handful of heights are linearly blended in between (e.g. across stage engagement).
+ * Rows are {@code {heightMeters, kS, kG, kV, kA}} with gains in volts, volts per m/s and volts per m/s^2.
+ * The interpolated gains are loaded into an {@link ElevatorFeedforward}, so the voltage is computed exactly
+ * as a single-gain elevator feedforward would compute it.
+ */
+public final class ElevatorFeedforwardTable {
+    private static final int kS = 0;
+    private static final int kG = 1;
+    private static final int kV = 2;
+    private static final int kA = 3;
+
+    // [load][gain], load 0 is empty and 1 is with coral
+    private final InterpolatingDoubleTreeMap[][] gains = new InterpolatingDoubleTreeMap[2][4];
+    // Reused for every calculation, with the interpolated gains set first
+    private final ElevatorFeedforward feedforward;
+
+    /**
+     * @param emptyRows gains with no coral, one {@code {heightMeters, kS, kG, kV, kA}} row per SysId run
+     * @param coralRows gains with coral loaded, same layout
+     * @param dtSeconds loop period the feedforward is discretized over
+     */
+    public ElevatorFeedforwardTable(double[][] emptyRows, double[][] coralRows, double dtSeconds) {
+        fill(0, emptyRows);
+        fill(1, coralRows);
+        feedforward = new ElevatorFeedforward(0, 0, 0, 0, dtSeconds);
+    }
+
+    private void fill(int load, double[][] rows) {
+        for (int gain = 0; gain < 4; gain++) {
+            gains[load][gain] = new InterpolatingDoubleTreeMap();
+        }
+        for (double[] row : rows) {
+            for (int gain = 0; gain < 4; gain++) {
+                gains[load][gain].put(row[0], row[gain + 1]);
+            }
+        }
+    }
+
+    /**
+     * Feedforward voltage to move from currentVelocity to nextVelocity over one loop, from
+     * {@link ElevatorFeedforward#calculateWithVelocities} with the gains at this height and load.
+     *
+     * @param heightMeters    current carriage height
+     * @param hasCoral        whether the shooter is holding coral
+     * @param currentVelocity current setpoint velocity in m/s
+     * @param nextVelocity    next setpoint velocity in m/s
+     * @return feedforward in volts
+     */
+    public double calculate(double heightMeters, boolean hasCoral, double currentVelocity, double nextVelocity) {
+        InterpolatingDoubleTreeMap[] load = gains[hasCoral ? 1 : 0];
+        feedforward.setKs(load[kS].get(heightMeters));
+        feedforward.setKg(load[kG].get(heightMeters));
+        feedforward.setKv(load[kV].get(heightMeters));
+        feedforward.setKa(load[kA].get(heightMeters));
+        return feedforward.calculateWithVelocities(currentVelocity, nextVelocity);
+    }
+
+    /**
+     * @return the gravity gain in volts at this height and load, for controllers that only take kG
+     */
+    public double getKG(double heightMeters, boolean hasCoral) {
+        return gains[hasCoral ? 1 : 0][kG].get(heightMeters);
+    }
+}
@@ -0,0 +1,188 @@
+package frc.robot.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.wpi.first.networktables.BooleanEntry;
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import frc.robot.Constants.ProfilerConstants;
+
+/**
+ * Measures how long each subsystem periodic() and each running command's execute() take.
+ *
+ * <p>Every component gets a {@link Section} that stamps {@link System#nanoTime()} into a preallocated ring
+ * buffer. Once every {@link ProfilerConstants#kPublishPeriodLoops} loops the p50/p95/p99/max of each window
+ * are published to NetworkTables under /Profiler and recorded to the DataLog. When disabled (from
+ * Constants or the /Profiler/Enabled entry) begin()/end() return right away.
+ */
+public final class LoopProfiler {
+
+    /**
+     * A timed component with its own ring buffer of samples.
+     */
+    public static final class Section {
+        private final long[] samples = new long[ProfilerConstants.kWindowSize];
+        private int count = 0;
+        private int next = 0;
+        private long startNanos = 0;
+
+        private final DoublePublisher p50Publisher;
+        private final DoublePublisher p95Publisher;
+        private final DoublePublisher p99Publisher;
+        private final DoublePublisher maxPublisher;
+
+        private final DoubleLogEntry p50Log;
+        private final DoubleLogEntry p95Log;
+        private final DoubleLogEntry p99Log;
+        private final DoubleLogEntry maxLog;
+
+        private Section(String name) {
+            NetworkTable table = NetworkTableInstance.getDefault().getTable("Profiler").getSubTable(name);
+            p50Publisher = table.getDoubleTopic("p50Ms").publish();
+            p95Publisher = table.getDoubleTopic("p95Ms").publish();
+            p99Publisher = table.getDoubleTopic("p99Ms").publish();
+            maxPublisher = table.getDoubleTopic("maxMs").publish();
+
+            DataLog log = DataLogManager.getLog();
+            p50Log = new DoubleLogEntry(log, "Profiler/" + name + "/p50Ms");
+            p95Log = new DoubleLogEntry(log, "Profiler/" + name + "/p95Ms");
+            p99Log = new DoubleLogEntry(log, "Profiler/" + name + "/p99Ms");
+            maxLog = new DoubleLogEntry(log, "Profiler/" + name + "/maxMs");
+        }
+
+        /** Marks the start of the timed block. */
+        public void begin() {
+            if (!enabled) {
+                return;
+            }
+            startNanos = System.nanoTime();
+        }
+
+        /** Marks the end of the timed block and records the elapsed time. */
+        public void end() {
+            if (!enabled || startNanos == 0) {
+                return;
+            }
+            record(System.nanoTime() - startNanos);
+            startNanos = 0;
+        }
+
+        private void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) {
+                count++;
+            }
+        }
+
+        private void publish() {
+            if (count == 0) {
+                return;
+            }
+            System.arraycopy(samples, 0, scratch, 0, count);
+            Arrays.sort(scratch, 0, count);
+
+            double p50 = percentileMs(0.50);
+            double p95 = percentileMs(0.95);
+            double p99 = percentileMs(0.99);
+            double max = scratch[count - 1] / 1e6;
+
+            p50Publisher.set(p50);
+            p95Publisher.set(p95);
+            p99Publisher.set(p99);
+            maxPublisher.set(max);
+
+            p50Log.append(p50);
+            p95Log.append(p95);
+            p99Log.append(p99);
+            maxLog.append(max);
+        }
+
+        private double percentileMs(double percentile) {
+            int index = Math.max(0, (int) Math.ceil(percentile * count) - 1);
+            return scratch[index] / 1e6;
+        }
+    }
+
+    private static final List<Section> sections = new ArrayList<>();
+    // Keyed by name, not instance, so commands rebuilt on every button press (Commands.run(...), deferred
+    // commands) share one section instead of leaking a new one each time
+    private static final Map<String, Section> commandSections = new HashMap<>();
+    // Shared sort buffer for publish(), only used from the main robot thread
+    private static final long[] scratch = new long[ProfilerConstants.kWindowSize];
+
+    private static final BooleanEntry enabledEntry =
+        NetworkTableInstance.getDefault().getTable("Profiler").getBooleanTopic("Enabled").getEntry(ProfilerConstants.kEnabled);
+
+    private static boolean enabled = ProfilerConstants.kEnabled;
+    private static int loopsSincePublish = 0;
+    private static long commandPhaseMarkNanos = 0;
+
+    static {
+        enabledEntry.setDefault(ProfilerConstants.kEnabled);
+    }
+
+    private LoopProfiler() {}
+
+    /**
+     * Create the section for a named component. Call this once and keep the handle.
+     *
+     * @param name Name shown under /Profiler
+     * @return {@link Section} for the component
+     */
+    public static Section section(String name) {
+        Section section = new Section(name);
+        sections.add(section);
+        return section;
+    }
+
+    /**
+     * Time every command's execute() on the given scheduler.
+     *
+     * <p>The scheduler only reports a command after its execute() has run, so each command is timed from the
+     * previous report (or from the end of button polling for the first command). Bind this after all other
+     * triggers so the polling mark is taken right before commands run. Commands with the same name share a
+     * section.
+     *
+     * @param scheduler The {@link CommandScheduler} to hook into
+     */
+    public static void installCommandHooks(CommandScheduler scheduler) {
+        scheduler.getDefaultButtonLoop().bind(() -> commandPhaseMarkNanos = System.nanoTime());
+        scheduler.onCommandExecute(command -> {
+            if (!enabled) {
+                return;
+            }
+            long now = System.nanoTime();
+            Section section = commandSections.computeIfAbsent(command.getName(),
+                                                              name -> section("Commands/" + name));
+            section.record(now - commandPhaseMarkNanos);
+            commandPhaseMarkNanos = now;
+        });
+    }
+
+    /**
+     * Call once per robot loop, after the scheduler has run, to publish the windowed statistics.
+     */
+    public static void periodic() {
+        enabled = enabledEntry.get();
+        if (!enabled) {
+            return;
+        }
+        if (++loopsSincePublish < ProfilerConstants.kPublishPeriodLoops) {
+            return;
+        }
+        loopsSincePublish = 0;
+        for (int i = 0; i < sections.size(); i++) {
+            sections.get(i).publish();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package frc.robot.util;
+
+/**
+ * Jerk-limited (S-curve) point-to-point motion profile, starting and ending at rest.
+ *
+ * <p>The move is the usual seven segments: jerk up, constant acceleration, jerk down, cruise, and the mirror
+ * image to stop. Each accel half is closed form; when the move is too short to reach the velocity limit the
+ * peak velocity is found by bisection on the distance the two halves cover. All segment start states are
+ * computed once, so sampling is a segment lookup and a cubic.
+ */
+public final class SCurveProfile {
+    private static final int kBisectionIterations = 60;
+
+    // Segment durations and jerks, in the direction of travel
+    private final double[] durations = new double[7];
+    private final double[] jerks = new double[7];
+    // State at the start of each segment, and after the last (index 7)
+    private final double[] startTimes = new double[8];
+    private final double[] positions = new double[8];
+    private final double[] velocities = new double[8];
+    private final double[] accelerations = new double[8];
+
+    private final double start;
+    private final double direction;
+    private final double peakVelocity;
+
+    /**
+     * @param start           start position
+     * @param goal            goal position
+     * @param maxVelocity     velocity limit, positive
+     * @param maxAcceleration acceleration limit, positive
+     * @param maxJerk         jerk limit, positive
+     */
+    public SCurveProfile(double start, double goal, double maxVelocity, double maxAcceleration, double maxJerk) {
+        this.start = start;
+        double distance = Math.abs(goal - start);
+        direction = Math.signum(goal - start);
+
+        double vPeak = maxVelocity;
+        if (2 * accelDistance(vPeak, maxAcceleration, maxJerk) > distance) {
+            // Can't reach the velocity limit; find the peak where the accel and decel halves meet
+            double low = 0;
+            double high = maxVelocity;
+            for (int i = 0; i < kBisectionIterations; i++) {
+                double mid = (low + high) / 2;
+                if (2 * accelDistance(mid, maxAcceleration, maxJerk) > distance) {
+                    high = mid;
+                } else {
+                    low = mid;
+                }
+            }
+            vPeak = low;
+        }
+        peakVelocity = vPeak;
+
+        double jerkTime;
+        double constantAccelTime;
+        if (vPeak >= maxAcceleration * maxAcceleration / maxJerk) {
+            jerkTime = maxAcceleration / maxJerk;
+            constantAccelTime = vPeak / maxAcceleration - jerkTime;
+        } else {
+            // Never reaches the acceleration limit
+            jerkTime = Math.sqrt(vPeak / maxJerk);
+            constantAccelTime = 0;
+        }
+        double cruiseTime = vPeak > 0 ? (distance - 2 * accelDistance(vPeak, maxAcceleration, maxJerk)) / vPeak : 0;
+
+        double[] segmentTimes = {jerkTime, constantAccelTime, jerkTime, Math.max(0, cruiseTime),
+                                 jerkTime, constantAccelTime, jerkTime};
+        double[] segmentJerks = {maxJerk, 0, -maxJerk, 0, -maxJerk, 0, maxJerk};
+        for (int i = 0; i < 7; i++) {
+            durations[i] = segmentTimes[i];
+            jerks[i] = segmentJerks[i];
+            double t = durations[i];
+            startTimes[i + 1] = startTimes[i] + t;
+            positions[i + 1] = positions[i] + velocities[i] * t + accelerations[i] * t * t / 2 + jerks[i] * t * t * t / 6;
+            velocities[i + 1] = velocities[i] + accelerations[i] * t + jerks[i] * t * t / 2;
+            accelerations[i + 1] = accelerations[i] + jerks[i] * t;
+        }
+    }
+
+    /**
+     * Distance covered accelerating from rest to v (the S-curve velocity is symmetric, so it's v times half the
+     * time taken).
+     */
+    private static double accelDistance(double v, double maxAcceleration, double maxJerk) {
+        double time = v >= maxAcceleration * maxAcceleration / maxJerk
+            ? v / maxAcceleration + maxAcceleration / maxJerk
+            : 2 * Math.sqrt(v / maxJerk);
+        return v * time / 2;
+    }
+
+    private int segment(double t) {
+        for (int i = 0; i < 7; i++) {
+            if (t < startTimes[i + 1]) {
+                return i;
+            }
+        }
+        return 7;
+    }
+
+    /**
+     * @return total duration in seconds
+     */
+    public double totalTime() {
+        return startTimes[7];
+    }
+
+    /**
+     * @return highest velocity reached, in the direction of travel
+     */
+    public double getPeakVelocity() {
+        return peakVelocity;
+    }
+
+    /**
+     * @param t time since the start of the profile
+     * @return setpoint position
+     */
+    public double position(double t) {
+        t = Math.max(0, t);
+        int i = segment(t);
+        if (i == 7) {
+            return start + direction * positions[7];
+        }
+        double dt = t - startTimes[i];
+        return start + direction * (positions[i] + velocities[i] * dt + accelerations[i] * dt * dt / 2
+                                    + jerks[i] * dt * dt * dt / 6);
+    }
+
+    /**
+     * @param t time since the start of the profile
+     * @return setpoint velocity
+     */
+    public double velocity(double t) {
+        t = Math.max(0, t);
+        int i = segment(t);
+        if (i == 7) {
+            return 0;
+        }
+        double dt = t - startTimes[i];
+        return direction * (velocities[i] + accelerations[i] * dt + jerks[i] * dt * dt / 2);
+    }
+
+    /**
+     * @param t time since the start of the profile
+     * @return whether the profile has finished
+     */
+    public boolean isFinished(double t) {
+        return t >= totalTime();
+    }
+}
@@ -0,0 +1,230 @@
+package frc.robot.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.networktables.BooleanPublisher;
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.StringPublisher;
+import edu.wpi.first.networktables.StructPublisher;
+import edu.wpi.first.util.datalog.BooleanLogEntry;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.util.datalog.StringLogEntry;
+import edu.wpi.first.util.datalog.StructLogEntry;
+import edu.wpi.first.util.struct.Struct;
+import edu.wpi.first.wpilibj.DataLogManager;
+import frc.robot.Constants.TelemetryConstants;
+
+/**
+ * Typed telemetry that records every value to the DataLog and only mirrors a throttled subset to
+ * NetworkTables.
+ *
+ * <p>Channels are registered once (usually as fields) and hold their log entry and publisher, so set() is
+ * just an append to the log plus storing the latest value. Mirrored channels are flushed to the
+ * SmartDashboard table every {@link TelemetryConstants#kMirrorPeriodLoops} loops from {@link #periodic()},
+ * using the same keys the dashboards already show.
+ */
+public final class Telemetry {
+
+    private interface Mirrored {
+        void flush();
+    }
+
+    /** A double value logged every time it is set. */
+    public static final class DoubleChannel implements Mirrored {
+        private final DoubleLogEntry entry;
+        private final DoublePublisher publisher;
+        private double value;
+        private boolean dirty = false;
+
+        private DoubleChannel(String key, boolean mirror) {
+            entry = new DoubleLogEntry(log(), "Telemetry/" + key);
+            publisher = mirror ? table().getDoubleTopic(key).publish() : null;
+        }
+
+        public void set(double value) {
+            entry.append(value);
+            this.value = value;
+            dirty = true;
+        }
+
+        @Override
+        public void flush() {
+            if (dirty) {
+                publisher.set(value);
+                dirty = false;
+            }
+        }
+    }
+
+    /** A boolean value logged every time it is set. */
+    public static final class BooleanChannel implements Mirrored {
+        private final BooleanLogEntry entry;
+        private final BooleanPublisher publisher;
+        private boolean value;
+        private boolean dirty = false;
+
+        private BooleanChannel(String key, boolean mirror) {
+            entry = new BooleanLogEntry(log(), "Telemetry/" + key);
+            publisher = mirror ? table().getBooleanTopic(key).publish() : null;
+        }
+
+        public void set(boolean value) {
+            entry.append(value);
+            this.value = value;
+            dirty = true;
+        }
+
+        @Override
+        public void flush() {
+            if (dirty) {
+                publisher.set(value);
+                dirty = false;
+            }
+        }
+    }
+
+    /** A string value (state names and such) logged every time it is set. */
+    public static final class StringChannel implements Mirrored {
+        private final StringLogEntry entry;
+        private final StringPublisher publisher;
+        private String value;
+        private boolean dirty = false;
+
+        private StringChannel(String key, boolean mirror) {
+            entry = new StringLogEntry(log(), "Telemetry/" + key);
+            publisher = mirror ? table().getStringTopic(key).publish() : null;
+        }
+
+        public void set(String value) {
+            entry.append(value);
+            this.value = value;
+            dirty = true;
+        }
+
+        @Override
+        public void flush() {
+            if (dirty) {
+                publisher.set(value);
+                dirty = false;
+            }
+        }
+    }
+
+    /** A struct-serializable value (Pose2d, Translation2d, ...) logged every time it is set. */
+    public static final class StructChannel<T> implements Mirrored {
+        private final StructLogEntry<T> entry;
+        private final StructPublisher<T> publisher;
+        private T value;
+        private boolean dirty = false;
+
+        private StructChannel(String key, Struct<T> struct, boolean mirror) {
+            entry = StructLogEntry.create(log(), "Telemetry/" + key, struct);
+            publisher = mirror ? table().getStructTopic(key, struct).publish() : null;
+        }
+
+        public void set(T value) {
+            entry.append(value);
+            this.value = value;
+            dirty = true;
+        }
+
+        @Override
+        public void flush() {
+            if (dirty) {
+                publisher.set(value);
+                dirty = false;
+            }
+        }
+    }
+
+    private static final List<Mirrored> mirrored = new ArrayList<>();
+    private static int loopsSinceMirror = 0;
+
+    private Telemetry() {}
+
+    private static DataLog log() {
+        return DataLogManager.getLog();
+    }
+
+    private static NetworkTable table() {
+        return NetworkTableInstance.getDefault().getTable("SmartDashboard");
+    }
+
+    /**
+     * Register a double channel.
+     *
+     * @param key    Log/dashboard key
+     * @param mirror Whether to also publish it to NetworkTables at the throttled rate
+     * @return {@link DoubleChannel}
+     */
+    public static DoubleChannel doubleChannel(String key, boolean mirror) {
+        DoubleChannel channel = new DoubleChannel(key, mirror);
+        if (mirror) {
+            mirrored.add(channel);
+        }
+        return channel;
+    }
+
+    /**
+     * Register a boolean channel.
+     *
+     * @param key    Log/dashboard key
+     * @param mirror Whether to also publish it to NetworkTables at the throttled rate
+     * @return {@link BooleanChannel}
+     */
+    public static BooleanChannel booleanChannel(String key, boolean mirror) {
+        BooleanChannel channel = new BooleanChannel(key, mirror);
+        if (mirror) {
+            mirrored.add(channel);
+        }
+        return channel;
+    }
+
+    /**
+     * Register a string channel.
+     *
+     * @param key    Log/dashboard key
+     * @param mirror Whether to also publish it to NetworkTables at the throttled rate
+     * @return {@link StringChannel}
+     */
+    public static StringChannel stringChannel(String key, boolean mirror) {
+        StringChannel channel = new StringChannel(key, mirror);
+        if (mirror) {
+            mirrored.add(channel);
+        }
+        return channel;
+    }
+
+    /**
+     * Register a struct channel.
+     *
+     * @param key    Log/dashboard key
+     * @param struct Struct serializer, e.g. {@code Pose2d.struct}
+     * @param mirror Whether to also publish it to NetworkTables at the throttled rate
+     * @return {@link StructChannel}
+     */
+    public static <T> StructChannel<T> structChannel(String key, Struct<T> struct, boolean mirror) {
+        StructChannel<T> channel = new StructChannel<>(key, struct, mirror);
+        if (mirror) {
+            mirrored.add(channel);
+        }
+        return channel;
+    }
+
+    /**
+     * Call once per robot loop to flush mirrored channels to NetworkTables at the throttled rate.
+     */
+    public static void periodic() {
+        if (++loopsSinceMirror < TelemetryConstants.kMirrorPeriodLoops) {
+            return;
+        }
+        loopsSinceMirror = 0;
+        for (int i = 0; i < mirrored.size(); i++) {
+            mirrored.get(i).flush();
+        }
+    }
+}
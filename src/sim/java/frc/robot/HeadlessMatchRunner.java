@@ -0,0 +1,71 @@
+package frc.robot;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Command-line front end for {@link MatchSimulation}: runs one auto and/or scripted teleop and prints the report.
+ *
+ * <p>Each run constructs one Robot, so run one configuration per JVM:
+ * <pre>
+ * ./gradlew simMatch -PsimArgs="--auto 'blue barge drive' --teleop teleop.csv --max-pose-error 0.1"
+ * </pre>
+ *
+ * <p>Arguments:
+ * <ul>
+ *   <li>--auto NAME: auto to select in the Auto Chooser (a .auto file in deploy/pathplanner/autos)</li>
+ *   <li>--alliance blue|red: alliance to run as, default blue</li>
+ *   <li>--auto-seconds S: length of the autonomous period, default 15</li>
+ *   <li>--teleop FILE: scripted driver inputs for teleop, see {@link TeleopScript}</li>
+ *   <li>--teleop-seconds S: length of the teleop period, default 135 with a script and 0 without</li>
+ *   <li>--max-pose-error M: exit with a failure if the pose after auto is further than M meters from the end of the
+ *       auto's last path</li>
+ *   <li>--report FILE: also write the report to FILE</li>
+ * </ul>
+ */
+public final class HeadlessMatchRunner {
+    private HeadlessMatchRunner() {}
+
+    public static void main(String... args) throws Exception {
+        String autoName = null;
+        boolean red = false;
+        double autoSeconds = 15;
+        Path teleopFile = null;
+        double teleopSeconds = -1;
+        double maxPoseError = Double.POSITIVE_INFINITY;
+        Path reportFile = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--auto" -> autoName = args[++i];
+                case "--alliance" -> red = args[++i].equalsIgnoreCase("red");
+                case "--auto-seconds" -> autoSeconds = Double.parseDouble(args[++i]);
+                case "--teleop" -> teleopFile = Path.of(args[++i]);
+                case "--teleop-seconds" -> teleopSeconds = Double.parseDouble(args[++i]);
+                case "--max-pose-error" -> maxPoseError = Double.parseDouble(args[++i]);
+                case "--report" -> reportFile = Path.of(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        MatchSimulation.Result result =
+            new MatchSimulation(autoName, red, autoSeconds, teleopFile, teleopSeconds).run();
+
+        String report = result.report();
+        System.out.print(report);
+        if (reportFile != null) {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(reportFile))) {
+                out.print(report);
+            }
+        }
+
+        boolean passed = !(result.poseError() > maxPoseError);
+        if (!passed) {
+            System.out.printf(Locale.ROOT, "FAILED: pose error %.3f m is over the %.3f m limit%n",
+                              result.poseError(), maxPoseError);
+        }
+        // NetworkTables and vendor threads would otherwise keep the JVM alive
+        System.exit(passed ? 0 : 1);
+    }
+}
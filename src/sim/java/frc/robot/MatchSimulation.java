@@ -0,0 +1,262 @@
+package frc.robot;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import com.pathplanner.lib.auto.AutoBuilder;
+import com.pathplanner.lib.commands.PathPlannerAuto;
+import com.pathplanner.lib.path.PathPlannerPath;
+
+import edu.wpi.first.hal.AllianceStationID;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.StringPublisher;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import edu.wpi.first.wpilibj.simulation.XboxControllerSim;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import frc.robot.Constants.DriverConstants;
+
+/**
+ * Runs a whole match (or just an auto) through {@link Robot} with the sim clock paused and stepped by hand,
+ * so a 2:30 match takes as long as the robot code needs to compute it rather than 150 seconds.
+ *
+ * <p>Used by {@link HeadlessMatchRunner} from the command line and by tests. Robot hardware objects and the
+ * {@link CommandScheduler} are per-JVM singletons, so only one simulation can be run per JVM.
+ */
+public final class MatchSimulation {
+    public static final double kLoopPeriod = 0.02;
+    private static final double kDisabledSeconds = 1.0;
+
+    private static boolean ran = false;
+
+    /** One command scheduler event, timestamped in sim time. */
+    public record CommandEvent(double timestamp, String event, String command) {}
+
+    /**
+     * What happened in a run.
+     *
+     * @param autoName        auto that was selected, or null
+     * @param red             whether the robot ran on the red alliance
+     * @param poseAfterAuto   true (simulated) pose at the end of auto, or null if there was no auto period
+     * @param expectedAutoEnd end of the auto's last path, flipped for the alliance, or null
+     * @param poseError       distance between those two in meters, NaN if either is missing
+     * @param finalPose       odometry pose at the end of the run
+     * @param finalTruePose   simulated pose at the end of the run
+     * @param loops           number of robot loops run
+     * @param simSeconds      sim time at the end of the run
+     * @param wallSeconds     real time the run took
+     * @param loopMeanMs      mean CPU time of a robot loop
+     * @param loopP50Ms       median CPU time of a robot loop
+     * @param loopP99Ms       99th percentile CPU time of a robot loop
+     * @param loopMaxMs       longest robot loop
+     * @param timeline        every command start, finish and interrupt, in order
+     */
+    public record Result(String autoName, boolean red,
+                         Pose2d poseAfterAuto, Pose2d expectedAutoEnd, double poseError,
+                         Pose2d finalPose, Pose2d finalTruePose,
+                         int loops, double simSeconds, double wallSeconds,
+                         double loopMeanMs, double loopP50Ms, double loopP99Ms, double loopMaxMs,
+                         List<CommandEvent> timeline) {
+
+        /**
+         * @return the human-readable report HeadlessMatchRunner prints
+         */
+        public String report() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format(Locale.ROOT, "auto: %s (%s)%n", autoName, red ? "red" : "blue"));
+            if (expectedAutoEnd != null && poseAfterAuto != null) {
+                report.append(String.format(Locale.ROOT, "pose after auto: %s%n", poseAfterAuto));
+                report.append(String.format(Locale.ROOT, "expected end pose: %s%n", expectedAutoEnd));
+                report.append(String.format(Locale.ROOT, "pose error: %.3f m, %.1f deg%n", poseError,
+                    Math.abs(poseAfterAuto.getRotation().minus(expectedAutoEnd.getRotation()).getDegrees())));
+            }
+            report.append(String.format(Locale.ROOT, "final pose: %s%n", finalTruePose));
+            report.append(String.format(Locale.ROOT, "odometry drift: %.3f m%n",
+                finalPose.getTranslation().getDistance(finalTruePose.getTranslation())));
+            report.append(String.format(Locale.ROOT, "loops: %d, sim time %.2f s, wall time %.3f s%n",
+                loops, simSeconds, wallSeconds));
+            report.append(String.format(Locale.ROOT, "loop cpu: mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                loopMeanMs, loopP50Ms, loopP99Ms, loopMaxMs));
+            report.append("command timeline:").append(System.lineSeparator());
+            for (CommandEvent event : timeline) {
+                report.append(String.format(Locale.ROOT, "  %8.3f %-9s %s%n", event.timestamp(), event.event(), event.command()));
+            }
+            return report.toString();
+        }
+    }
+
+    /** Per-loop CPU time in nanoseconds, one entry per robot loop. */
+    private static final class LoopTimes {
+        private long[] nanos = new long[4096];
+        private int count = 0;
+
+        void add(long loopNanos) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, nanos.length * 2);
+            }
+            nanos[count++] = loopNanos;
+        }
+
+        double meanMs() {
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += nanos[i];
+            }
+            return sum / 1e6 / count;
+        }
+
+        double percentileMs(double p) {
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            return sorted[Math.max(0, Math.min(count - 1, (int) Math.ceil(p * count) - 1))] / 1e6;
+        }
+    }
+
+    private final String autoName;
+    private final boolean red;
+    private final double autoSeconds;
+    private final TeleopScript script;
+    private final double teleopSeconds;
+
+    /**
+     * @param autoName      auto to select in the Auto Chooser (a .auto file in deploy/pathplanner/autos), or null
+     * @param red           run on the red alliance instead of blue
+     * @param autoSeconds   length of the autonomous period, 0 to skip it
+     * @param teleopFile    scripted driver inputs for teleop, see {@link TeleopScript}, or null
+     * @param teleopSeconds length of the teleop period, negative for the default of 135 with a script and 0 without
+     * @throws IOException if the teleop script can't be read
+     */
+    public MatchSimulation(String autoName, boolean red, double autoSeconds, Path teleopFile, double teleopSeconds)
+            throws IOException {
+        this.autoName = autoName;
+        this.red = red;
+        this.autoSeconds = autoSeconds;
+        this.script = teleopFile != null ? new TeleopScript(teleopFile) : null;
+        this.teleopSeconds = teleopSeconds >= 0 ? teleopSeconds : teleopFile != null ? 135 : 0;
+    }
+
+    /**
+     * Bring up the HAL sim, construct the robot and run disabled, auto, teleop and disabled again.
+     *
+     * @return what happened
+     * @throws Exception if the auto's paths can't be loaded
+     */
+    public Result run() throws Exception {
+        synchronized (MatchSimulation.class) {
+            if (ran) {
+                throw new IllegalStateException("Only one MatchSimulation can run per JVM");
+            }
+            ran = true;
+        }
+
+        if (!HAL.initialize(500, 0)) {
+            throw new IllegalStateException("Failed to initialize the HAL sim");
+        }
+        // From here on time only moves when we step it
+        SimHooks.pauseTiming();
+        DriverStationSim.setDsAttached(true);
+        DriverStationSim.setAllianceStationId(red ? AllianceStationID.Red1 : AllianceStationID.Blue1);
+        DriverStationSim.setEnabled(false);
+        DriverStationSim.notifyNewData();
+
+        Robot robot = new Robot();
+
+        List<CommandEvent> timeline = new ArrayList<>();
+        CommandScheduler scheduler = CommandScheduler.getInstance();
+        scheduler.onCommandInitialize(command -> timeline.add(new CommandEvent(Timer.getFPGATimestamp(), "start", command.getName())));
+        scheduler.onCommandFinish(command -> timeline.add(new CommandEvent(Timer.getFPGATimestamp(), "finish", command.getName())));
+        scheduler.onCommandInterrupt(command -> timeline.add(new CommandEvent(Timer.getFPGATimestamp(), "interrupt", command.getName())));
+
+        if (autoName != null) {
+            // Same topic the dashboard writes to when someone picks an auto
+            StringPublisher selectedAuto = NetworkTableInstance.getDefault()
+                .getStringTopic("/SmartDashboard/Auto Chooser/selected").publish();
+            selectedAuto.set(autoName);
+        }
+
+        XboxControllerSim driver = new XboxControllerSim(DriverConstants.kDriverControllerPort);
+        LoopTimes loopTimes = new LoopTimes();
+        long wallStart = System.nanoTime();
+
+        step(robot, kDisabledSeconds, loopTimes, null, null);
+
+        Pose2d poseAfterAuto = null;
+        if (autoSeconds > 0) {
+            DriverStationSim.setAutonomous(true);
+            DriverStationSim.setEnabled(true);
+            DriverStationSim.notifyNewData();
+            step(robot, autoSeconds, loopTimes, null, null);
+            // Score the auto on where the robot really ended up, not where odometry thinks it is
+            poseAfterAuto = robot.getRobotContainer().getRobotTruePose();
+        }
+
+        if (teleopSeconds > 0) {
+            DriverStationSim.setAutonomous(false);
+            DriverStationSim.setEnabled(true);
+            DriverStationSim.notifyNewData();
+            step(robot, teleopSeconds, loopTimes, script, driver);
+        }
+
+        DriverStationSim.setEnabled(false);
+        DriverStationSim.notifyNewData();
+        step(robot, kLoopPeriod, loopTimes, null, null);
+        long wallNanos = System.nanoTime() - wallStart;
+
+        Pose2d expectedEnd = autoName != null ? expectedAutoEndPose(autoName) : null;
+        double poseError = poseAfterAuto != null && expectedEnd != null
+            ? poseAfterAuto.getTranslation().getDistance(expectedEnd.getTranslation())
+            : Double.NaN;
+
+        return new Result(autoName, red,
+                          poseAfterAuto, expectedEnd, poseError,
+                          robot.getRobotContainer().getRobotPose(), robot.getRobotContainer().getRobotTruePose(),
+                          loopTimes.count, Timer.getFPGATimestamp(), wallNanos / 1e9,
+                          loopTimes.meanMs(), loopTimes.percentileMs(0.5),
+                          loopTimes.percentileMs(0.99), loopTimes.percentileMs(1.0),
+                          Collections.unmodifiableList(timeline));
+    }
+
+    /**
+     * Step the sim clock and the robot loop for the given number of seconds.
+     */
+    private static void step(Robot robot, double seconds, LoopTimes loopTimes, TeleopScript script, XboxControllerSim driver) {
+        double start = Timer.getFPGATimestamp();
+        int loops = (int) Math.round(seconds / kLoopPeriod);
+        for (int i = 0; i < loops; i++) {
+            if (script != null) {
+                script.apply(Timer.getFPGATimestamp() - start, driver);
+                DriverStationSim.notifyNewData();
+            }
+            // Advances the clock and waits for any notifiers (watchdogs, fast loops) that came due
+            SimHooks.stepTiming(kLoopPeriod);
+            long loopStart = System.nanoTime();
+            robot.stepLoop();
+            loopTimes.add(System.nanoTime() - loopStart);
+        }
+    }
+
+    /**
+     * End pose of the last path in an auto, flipped the same way AutoBuilder would flip it.
+     * @return the pose, or null if the auto has no paths
+     */
+    private static Pose2d expectedAutoEndPose(String autoName) throws Exception {
+        List<PathPlannerPath> paths = PathPlannerAuto.getPathGroupFromAutoFile(autoName);
+        if (paths.isEmpty()) {
+            return null;
+        }
+        PathPlannerPath last = paths.get(paths.size() - 1);
+        if (AutoBuilder.shouldFlip()) {
+            last = last.flipPath();
+        }
+        List<Pose2d> poses = last.getPathPoses();
+        return new Pose2d(poses.get(poses.size() - 1).getTranslation(), last.getGoalEndState().rotation());
+    }
+}
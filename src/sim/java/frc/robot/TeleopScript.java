@@ -0,0 +1,77 @@
+package frc.robot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.wpilibj.XboxController;
+import edu.wpi.first.wpilibj.simulation.XboxControllerSim;
+
+/**
+ * Scripted driver controller inputs, read from a CSV with a header row and the columns
+ * {@code time,leftX,leftY,rightX,rightY,leftTrigger,rightTrigger,buttons,pov}.
+ * Time is seconds since the start of teleop and each row holds until the next one. Buttons are
+ * XboxController button names without the k, separated by '|' (e.g. {@code leftBumper|a}); POV is -1 when released.
+ */
+final class TeleopScript {
+    private final List<double[]> axes = new ArrayList<>();
+    private final List<XboxController.Button[]> buttons = new ArrayList<>();
+    private int next = 0;
+
+    TeleopScript(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] cols = line.split(",", -1);
+            double[] row = new double[8];
+            for (int i = 0; i < 7; i++) {
+                row[i] = Double.parseDouble(cols[i].trim());
+            }
+            row[7] = cols[8].isBlank() ? -1 : Double.parseDouble(cols[8].trim());
+            axes.add(row);
+            buttons.add(parseButtons(cols[7].trim()));
+        }
+    }
+
+    private static XboxController.Button[] parseButtons(String field) {
+        if (field.isEmpty()) {
+            return new XboxController.Button[0];
+        }
+        String[] names = field.split("\\|");
+        XboxController.Button[] pressed = new XboxController.Button[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].trim();
+            pressed[i] = XboxController.Button.valueOf("k" + Character.toUpperCase(name.charAt(0)) + name.substring(1));
+        }
+        return pressed;
+    }
+
+    /** Apply the row in effect at teleopTime, if it changed since the last call. */
+    void apply(double teleopTime, XboxControllerSim controller) {
+        if (next >= axes.size() || axes.get(next)[0] > teleopTime) {
+            return;
+        }
+        while (next + 1 < axes.size() && axes.get(next + 1)[0] <= teleopTime) {
+            next++;
+        }
+        double[] row = axes.get(next);
+        controller.setLeftX(row[1]);
+        controller.setLeftY(row[2]);
+        controller.setRightX(row[3]);
+        controller.setRightY(row[4]);
+        controller.setLeftTriggerAxis(row[5]);
+        controller.setRightTriggerAxis(row[6]);
+        for (XboxController.Button button : XboxController.Button.values()) {
+            controller.setRawButton(button.value, false);
+        }
+        for (XboxController.Button button : buttons.get(next)) {
+            controller.setRawButton(button.value, true);
+        }
+        controller.setPOV((int) row[7]);
+        next++;
+    }
+}
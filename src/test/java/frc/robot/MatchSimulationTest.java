@@ -0,0 +1,33 @@
+package frc.robot;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs a real auto from deploy/pathplanner/autos through the whole robot with the sim clock stepped by hand.
+ * Only one MatchSimulation can run per JVM, so this class holds a single test.
+ */
+class MatchSimulationTest {
+    private static final String kAuto = "blue barge drive";
+
+    // Loose enough to only catch an auto that doesn't run or ends up somewhere else, not path follower tuning
+    private static final double kMaxPoseErrorMeters = 0.5;
+
+    @Test
+    void autoReachesEndOfLastPath() throws Exception {
+        MatchSimulation.Result result = new MatchSimulation(kAuto, false, 15, null, 0).run();
+
+        assertNotNull(result.poseAfterAuto(), result::report);
+        assertNotNull(result.expectedAutoEnd(), result::report);
+        assertTrue(result.poseError() <= kMaxPoseErrorMeters, result::report);
+
+        assertFalse(result.timeline().isEmpty(), result::report);
+        assertTrue(result.timeline().stream().anyMatch(event -> event.event().equals("start")
+                                                                && event.command().equals(kAuto)),
+                   result::report);
+        assertTrue(result.loops() > 0, result::report);
+    }
+}
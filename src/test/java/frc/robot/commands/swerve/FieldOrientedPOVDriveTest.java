@@ -0,0 +1,154 @@
+package frc.robot.commands.swerve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.wpilibj.Filesystem;
+import frc.robot.Constants;
+import frc.robot.subsystems.swerve.SwerveSubsystem;
+import swervelib.SwerveInputStream;
+import swervelib.math.Matter;
+import swervelib.math.SwerveMath;
+
+/**
+ * Checks that FieldOrientedPOVDrive.execute() allocates no more per call than the library calls it has to make.
+ * Each case runs execute() and then the same input stream, tip limiter and drive() calls directly, and compares
+ * the bytes the test thread allocated per call. Also checks the tip limit the command's Matter gives against the
+ * old whole-robot CHASSIS.
+ */
+class FieldOrientedPOVDriveTest {
+    private static final int kWarmupCalls = 20000;
+    private static final int kMeasuredCalls = 5000;
+
+    // Room for JIT differences between the two loops, well under the smallest object the command could add
+    // (a Matter, a lambda capture or a log string)
+    private static final double kAllowedExtraBytesPerCall = 16;
+
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static SwerveSubsystem swerve;
+
+    @BeforeAll
+    static void setup() {
+        assertTrue(HAL.initialize(500, 0));
+        swerve = new SwerveSubsystem(new File(Filesystem.getDeployDirectory(), "swerve"));
+    }
+
+    private static SwerveInputStream inputs() {
+        return SwerveInputStream.of(swerve.getSwerveDrive(), () -> 0.5, () -> 0.25)
+                                .withControllerHeadingAxis(() -> 0.7, () -> 0.7)
+                                .headingWhile(true)
+                                .allianceRelativeControl(true);
+    }
+
+    private static FieldOrientedPOVDrive command(boolean povPressed, double height) {
+        FieldOrientedPOVDrive command = new FieldOrientedPOVDrive(swerve,
+                                                                  () -> povPressed,
+                                                                  () -> false,
+                                                                  () -> false,
+                                                                  () -> false,
+                                                                  () -> false,
+                                                                  () -> false,
+                                                                  () -> false,
+                                                                  () -> false,
+                                                                  () -> 0.7,
+                                                                  () -> 0.7,
+                                                                  inputs(),
+                                                                  () -> height);
+        command.initialize();
+        return command;
+    }
+
+    private static double bytesPerCall(Runnable call) {
+        for (int i = 0; i < kWarmupCalls; i++) {
+            call.run();
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < kMeasuredCalls; i++) {
+            call.run();
+        }
+        return (double) (threads.getCurrentThreadAllocatedBytes() - before) / kMeasuredCalls;
+    }
+
+    private static void assertNoExtraAllocation(boolean povPressed, double height) {
+        FieldOrientedPOVDrive command = command(povPressed, height);
+        SwerveInputStream baselineInputs = inputs();
+        // Same shape as the command's list, so the limiter does the same work for both
+        List<Matter> matter = List.of(Constants.SwerveConstants.CHASSIS_WITHOUT_CARRIAGE,
+                                      new Matter(new Translation3d(0, 0, Constants.SwerveConstants.CARRIAGE_COG_HEIGHT + height),
+                                                 Constants.ElevatorConstants.kCarriageMass));
+
+        double commandBytes = bytesPerCall(command::execute);
+        double libraryBytes = bytesPerCall(() -> {
+            ChassisSpeeds speeds = baselineInputs.get();
+            if (povPressed) {
+                speeds.omegaRadiansPerSecond = swerve.getSwerveController().headingCalculate(
+                    swerve.getSwerveDrive().getOdometryHeading().getRadians(), 0);
+            }
+            Translation2d translation = new Translation2d(speeds.vxMetersPerSecond, speeds.vyMetersPerSecond);
+            translation = SwerveMath.limitVelocity(
+                translation,
+                swerve.getFieldVelocity(), swerve.getPose(),
+                Constants.SwerveConstants.LOOP_TIME, Constants.SwerveConstants.ROBOT_MASS, matter,
+                swerve.getSwerveDriveConfiguration());
+            swerve.drive(translation, speeds.omegaRadiansPerSecond, true);
+        });
+
+        assertTrue(commandBytes <= libraryBytes + kAllowedExtraBytesPerCall,
+                   String.format("execute() allocated %.1f bytes/call, the library calls alone %.1f",
+                                 commandBytes, libraryBytes));
+    }
+
+    @Test
+    void stickDriveAllocatesNothingExtra() {
+        assertNoExtraAllocation(false, 0);
+    }
+
+    @Test
+    void povHeadingAllocatesNothingExtra() {
+        assertNoExtraAllocation(true, 0);
+    }
+
+    @Test
+    void raisedElevatorAllocatesNothingExtra() {
+        assertNoExtraAllocation(false, 1.2);
+    }
+
+    private static double maxAccel(Rotation2d direction, List<Matter> matter) {
+        return SwerveMath.calcMaxAccel(direction, matter, Constants.SwerveConstants.ROBOT_MASS,
+                                       swerve.getSwerveDriveConfiguration());
+    }
+
+    @Test
+    void stowedLimitMatchesTheWholeRobotAndTightensWithHeight() {
+        FieldOrientedPOVDrive command = command(false, 0);
+        List<Matter> baseline = List.of(Constants.SwerveConstants.CHASSIS);
+        for (Rotation2d direction : new Rotation2d[] {Rotation2d.kZero, Rotation2d.kCCW_Pi_2, Rotation2d.fromDegrees(45)}) {
+            double baselineAccel = maxAccel(direction, baseline);
+            double stowedAccel = maxAccel(direction, command.chassisMatterAt(0));
+            assertTrue(stowedAccel >= baselineAccel - 1e-9,
+                       String.format("stowed %.3f m/s^2 is below the baseline %.3f", stowedAccel, baselineAccel));
+            assertEquals(baselineAccel, stowedAccel, 1e-9);
+
+            double lastAccel = stowedAccel;
+            for (double height = 0.25; height <= 1.64; height += 0.25) {
+                double accel = maxAccel(direction, command.chassisMatterAt(height));
+                assertTrue(accel < lastAccel, String.format("limit at %.2f m didn't shrink", height));
+                lastAccel = accel;
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package frc.robot.subsystems.mechanisms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ElevatorHeightEstimatorTest {
+    private static final double kDt = 0.02;
+    private static final double kAccelStdDev = 5.0;
+    private static final double kEncoderStdDev = 0.002;
+    private static final double kLaserStdDev = 0.02;
+
+    @Test
+    void resetJumpsToHeightAtRest() {
+        ElevatorHeightEstimator estimator = new ElevatorHeightEstimator(0.3, kAccelStdDev);
+        assertEquals(0.3, estimator.getHeight(), 1e-12);
+        assertEquals(0.0, estimator.getVelocity(), 1e-12);
+
+        estimator.predict(kDt);
+        estimator.correct(0.5, kEncoderStdDev);
+        estimator.reset(1.2);
+        assertEquals(1.2, estimator.getHeight(), 1e-12);
+        assertEquals(0.0, estimator.getVelocity(), 1e-12);
+    }
+
+    @Test
+    void predictCarriesVelocityForward() {
+        ElevatorHeightEstimator estimator = new ElevatorHeightEstimator(0.0, kAccelStdDev);
+        // Pull the velocity up with a ramp of measurements, then coast without any
+        for (int i = 1; i <= 50; i++) {
+            estimator.predict(kDt);
+            estimator.correct(i * kDt * 0.5, kEncoderStdDev);
+        }
+        assertEquals(0.5, estimator.getVelocity(), 0.02);
+
+        double height = estimator.getHeight();
+        double velocity = estimator.getVelocity();
+        estimator.predict(0.1);
+        assertEquals(height + velocity * 0.1, estimator.getHeight(), 1e-12);
+        assertEquals(velocity, estimator.getVelocity(), 1e-12);
+    }
+
+    @Test
+    void correctReturnsTheInnovation() {
+        ElevatorHeightEstimator estimator = new ElevatorHeightEstimator(0.4, kAccelStdDev);
+        estimator.predict(kDt);
+        assertEquals(0.1, estimator.correct(0.5, kEncoderStdDev), 1e-12);
+    }
+
+    @Test
+    void weighsMeasurementsByTheirNoise() {
+        ElevatorHeightEstimator estimator = new ElevatorHeightEstimator(0.0, kAccelStdDev);
+        estimator.predict(kDt);
+        estimator.correct(0.1, kEncoderStdDev);
+        double afterEncoder = estimator.getHeight();
+
+        estimator.reset(0.0);
+        estimator.predict(kDt);
+        estimator.correct(0.1, kLaserStdDev);
+        double afterLaser = estimator.getHeight();
+
+        // The encoder is ten times less noisy, so it moves the estimate further toward its reading
+        assertTrue(afterEncoder > afterLaser);
+        assertTrue(afterEncoder > 0.05 && afterEncoder < 0.1);
+        assertTrue(afterLaser > 0 && afterLaser < afterEncoder);
+    }
+
+    @Test
+    void tracksAMovingCarriageThroughNoise() {
+        Random random = new Random(1474);
+        ElevatorHeightEstimator estimator = new ElevatorHeightEstimator(0.0, kAccelStdDev);
+        double trueHeight = 0.0;
+        double trueVelocity = 0.0;
+        double worstError = 0;
+        for (int i = 0; i < 200; i++) {
+            // Accelerate up for a second, then decelerate to a stop
+            trueVelocity += (i < 50 ? 1.0 : i < 100 ? -1.0 : 0.0) * kDt;
+            trueHeight += trueVelocity * kDt;
+
+            estimator.predict(kDt);
+            estimator.correct(trueHeight + random.nextGaussian() * kEncoderStdDev, kEncoderStdDev);
+            estimator.correct(trueHeight + random.nextGaussian() * kLaserStdDev, kLaserStdDev);
+            worstError = Math.max(worstError, Math.abs(estimator.getHeight() - trueHeight));
+        }
+        assertTrue(worstError < 0.01, "worst error " + worstError);
+        assertEquals(0.0, estimator.getVelocity(), 0.1);
+    }
+
+    @Test
+    void laserPullsADriftedEstimateBack() {
+        ElevatorHeightEstimator estimator = new ElevatorHeightEstimator(0.5, kAccelStdDev);
+        for (int i = 0; i < 200; i++) {
+            estimator.predict(kDt);
+            estimator.correct(0.6, kLaserStdDev);
+        }
+        assertEquals(0.6, estimator.getHeight(), 1e-3);
+        assertEquals(0.0, estimator.getVelocity(), 1e-2);
+    }
+}
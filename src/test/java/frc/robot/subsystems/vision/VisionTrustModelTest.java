@@ -0,0 +1,160 @@
+package frc.robot.subsystems.vision;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.subsystems.vision.VisionTrustModel.Rejection;
+
+class VisionTrustModelTest {
+    private static final double kFieldLength = 17.548;
+    private static final double kFieldWidth = 8.052;
+    private static final double kEpsilon = 1e-9;
+
+    // Odometry agrees with every estimate below unless a test moves it
+    private static final Pose2d kOdometry = new Pose2d(5, 4, Rotation2d.kZero);
+
+    private VisionTrustModel model;
+
+    @BeforeEach
+    void setup() {
+        model = new VisionTrustModel(kFieldLength, kFieldWidth);
+    }
+
+    /** Evaluate an estimate at the odometry pose with the given tags, not turning. */
+    private boolean evaluate(int tagCount, double distance, double ambiguity) {
+        return model.evaluate(kOdometry.getX(), kOdometry.getY(), 0, tagCount, distance, ambiguity, kOdometry, 0);
+    }
+
+    private double xyStdDev() {
+        Matrix<N3, N1> stdDevs = model.getStdDevs();
+        assertEquals(stdDevs.get(0, 0), stdDevs.get(1, 0), kEpsilon);
+        return stdDevs.get(0, 0);
+    }
+
+    @Test
+    void acceptsGoodEstimate() {
+        assertTrue(evaluate(2, 2, 0.1));
+        assertEquals(Rejection.NONE, model.getLastRejection());
+    }
+
+    @Test
+    void rejectsNoTags() {
+        assertFalse(evaluate(0, 2, 0));
+        assertEquals(Rejection.NO_TAGS, model.getLastRejection());
+    }
+
+    @Test
+    void rejectsOffField() {
+        double margin = VisionConstants.kFieldMarginMeters;
+        assertFalse(model.evaluate(-margin - 0.1, 4, 0, 2, 2, 0, kOdometry, 0));
+        assertEquals(Rejection.OFF_FIELD, model.getLastRejection());
+        assertFalse(model.evaluate(kFieldLength + margin + 0.1, 4, 0, 2, 2, 0, kOdometry, 0));
+        assertEquals(Rejection.OFF_FIELD, model.getLastRejection());
+        assertFalse(model.evaluate(5, -margin - 0.1, 0, 2, 2, 0, kOdometry, 0));
+        assertEquals(Rejection.OFF_FIELD, model.getLastRejection());
+        assertFalse(model.evaluate(5, kFieldWidth + margin + 0.1, 0, 2, 2, 0, kOdometry, 0));
+        assertEquals(Rejection.OFF_FIELD, model.getLastRejection());
+    }
+
+    @Test
+    void rejectsFloatingEstimate() {
+        assertFalse(model.evaluate(5, 4, VisionConstants.kMaxZErrorMeters + 0.1, 2, 2, 0, kOdometry, 0));
+        assertEquals(Rejection.OFF_FIELD, model.getLastRejection());
+    }
+
+    @Test
+    void rejectsDistantTags() {
+        assertFalse(evaluate(2, VisionConstants.kMaxTagDistanceMeters + 0.1, 0));
+        assertEquals(Rejection.TOO_FAR, model.getLastRejection());
+    }
+
+    @Test
+    void rejectsAmbiguousSingleTag() {
+        double ambiguous = VisionConstants.kMaxSingleTagAmbiguity + 0.1;
+        assertFalse(evaluate(1, 2, ambiguous));
+        assertEquals(Rejection.AMBIGUOUS, model.getLastRejection());
+        // Several tags constrain the pose, so the same ambiguity only inflates the std devs
+        assertTrue(evaluate(2, 2, ambiguous));
+    }
+
+    @Test
+    void rejectsFastSpin() {
+        double rate = VisionConstants.kMaxYawRateDegPerSec + 1;
+        assertFalse(model.evaluate(5, 4, 0, 2, 2, 0, kOdometry, rate));
+        assertEquals(Rejection.YAW_RATE, model.getLastRejection());
+        assertFalse(model.evaluate(5, 4, 0, 2, 2, 0, kOdometry, -rate));
+        assertEquals(Rejection.YAW_RATE, model.getLastRejection());
+    }
+
+    @Test
+    void rejectsJumpsUntilTheyPersist() {
+        double jumpedX = kOdometry.getX() + VisionConstants.kMaxJumpMeters + 0.5;
+        for (int i = 0; i < VisionConstants.kMaxConsecutiveJumps; i++) {
+            assertFalse(model.evaluate(jumpedX, 4, 0, 2, 2, 0, kOdometry, 0));
+            assertEquals(Rejection.JUMP, model.getLastRejection());
+        }
+        // Vision has disagreed long enough that odometry is the one that's wrong
+        assertTrue(model.evaluate(jumpedX, 4, 0, 2, 2, 0, kOdometry, 0));
+        // And the count starts over
+        assertFalse(model.evaluate(jumpedX, 4, 0, 2, 2, 0, kOdometry, 0));
+        assertEquals(Rejection.JUMP, model.getLastRejection());
+    }
+
+    @Test
+    void acceptedEstimateResetsJumpCount() {
+        double jumpedX = kOdometry.getX() + VisionConstants.kMaxJumpMeters + 0.5;
+        for (int i = 0; i < VisionConstants.kMaxConsecutiveJumps - 1; i++) {
+            assertFalse(model.evaluate(jumpedX, 4, 0, 2, 2, 0, kOdometry, 0));
+        }
+        assertTrue(evaluate(2, 2, 0));
+        assertFalse(model.evaluate(jumpedX, 4, 0, 2, 2, 0, kOdometry, 0));
+        assertEquals(Rejection.JUMP, model.getLastRejection());
+    }
+
+    @Test
+    void stdDevGrowsWithDistanceSquared() {
+        assertTrue(evaluate(1, 2, 0));
+        double atTwo = xyStdDev();
+        assertEquals(VisionConstants.kBaseXYStdDev * 4, atTwo, kEpsilon);
+        assertTrue(evaluate(1, 3, 0));
+        assertEquals(atTwo * 9 / 4, xyStdDev(), kEpsilon);
+    }
+
+    @Test
+    void stdDevShrinksWithTagCount() {
+        assertTrue(evaluate(1, 3, 0));
+        double oneTag = xyStdDev();
+        assertTrue(evaluate(3, 3, 0));
+        assertEquals(oneTag / 3, xyStdDev(), kEpsilon);
+    }
+
+    @Test
+    void stdDevGrowsWithAmbiguity() {
+        assertTrue(evaluate(1, 3, 0));
+        double clear = xyStdDev();
+        assertTrue(evaluate(1, 3, 0.2));
+        assertEquals(clear * (1 + VisionConstants.kAmbiguityStdDevScale * 0.2), xyStdDev(), kEpsilon);
+    }
+
+    @Test
+    void stdDevHasFloor() {
+        assertTrue(evaluate(4, 0.3, 0));
+        assertEquals(VisionConstants.kMinXYStdDev, xyStdDev(), kEpsilon);
+    }
+
+    @Test
+    void headingIsNotTrusted() {
+        assertTrue(evaluate(2, 2, 0));
+        assertEquals(VisionConstants.kMegaTag2ThetaStdDev, model.getStdDevs().get(2, 0), kEpsilon);
+    }
+}
@@ -0,0 +1,153 @@
+package frc.robot.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.wpi.first.util.datalog.DataLogWriter;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.util.datalog.StringLogEntry;
+import frc.robot.tools.ElevatorGainFitter.Fit;
+import frc.robot.tools.ElevatorGainFitter.Gains;
+
+/**
+ * Fits a SysId log generated from an elevator with known gains, and checks the sanity checks that keep a bad fit
+ * from being written.
+ */
+class ElevatorGainFitterTest {
+    private static final double kS = 0.15;
+    private static final double kG = 0.85;
+    private static final double kV = 2.4;
+    private static final double kA = 0.2;
+
+    private static final String kMotor = "elevator-improved";
+    private static final double[] kBands = {0, 0.55, 1.10, 1.64};
+
+    private static final double kSimDt = 0.001;
+    private static final int kLogEvery = 5; // sim steps, so the log runs at 200 Hz like SysId
+    private static final double kVoltageNoise = 0.02;
+
+    @TempDir
+    Path tempDir;
+
+    /** Writes SysIdRoutineLog-style entries for an ideal elevator driven through the four SysId tests. */
+    private static final class SyntheticLog {
+        private final DataLogWriter log;
+        private final StringLogEntry state;
+        private final DoubleLogEntry voltage;
+        private final DoubleLogEntry position;
+        private final DoubleLogEntry velocity;
+        private final Random noise = new Random(1474);
+        private long stepCount = 0;
+        private double height = 0;
+
+        SyntheticLog(Path file) throws Exception {
+            log = new DataLogWriter(file.toString());
+            state = new StringLogEntry(log, "sysid-test-state-elevator");
+            voltage = new DoubleLogEntry(log, "voltage-" + kMotor + "-elevator");
+            position = new DoubleLogEntry(log, "position-" + kMotor + "-elevator");
+            velocity = new DoubleLogEntry(log, "velocity-" + kMotor + "-elevator");
+        }
+
+        /** Run one test from rest, with the voltage as a function of time since it started. */
+        void run(String test, DoubleUnaryOperator voltsAt, double seconds) {
+            long timestamp = micros();
+            state.append(test, timestamp);
+            double v = 0;
+            for (int i = 0; i < seconds / kSimDt; i++) {
+                double volts = voltsAt.applyAsDouble(i * kSimDt);
+                double drive = volts - kG;
+                double acceleration;
+                if (v == 0 && Math.abs(drive) <= kS) {
+                    acceleration = 0; // static friction holds
+                } else {
+                    double direction = v != 0 ? Math.signum(v) : Math.signum(drive);
+                    acceleration = (drive - kS * direction - kV * v) / kA;
+                }
+                if (stepCount % kLogEvery == 0) {
+                    timestamp = micros();
+                    voltage.append(volts + noise.nextGaussian() * kVoltageNoise, timestamp);
+                    position.append(height, timestamp);
+                    velocity.append(v, timestamp);
+                }
+                v += acceleration * kSimDt;
+                height += v * kSimDt;
+                stepCount++;
+            }
+            state.append("none", micros());
+            // The carriage is stopped between tests
+            stepCount += 1000;
+        }
+
+        private long micros() {
+            return Math.round(stepCount * kSimDt * 1e6);
+        }
+
+        void close() {
+            log.close();
+        }
+    }
+
+    private String writeLog() throws Exception {
+        Path file = tempDir.resolve("sysid.wpilog");
+        SyntheticLog log = new SyntheticLog(file);
+        log.run("quasistatic-forward", t -> kG + 0.5 * t, 5);
+        log.run("quasistatic-reverse", t -> kG - 0.5 * t, 5);
+        log.run("dynamic-forward", t -> kG + 4, 1.5);
+        log.run("dynamic-reverse", t -> kG - 4, 1.5);
+        log.close();
+        return file.toString();
+    }
+
+    @Test
+    void recoversKnownGains() throws Exception {
+        Gains gains = ElevatorGainFitter.fitLog(writeLog(), kMotor, kBands, 0.02, 0.4, 12, 0.02, 0);
+
+        Fit fit = gains.overall();
+        assertEquals(kS, fit.kS(), 0.02);
+        assertEquals(kG, fit.kG(), 0.02);
+        assertEquals(kV, fit.kV(), kV * 0.05);
+        assertEquals(kA, fit.kA(), kA * 0.05);
+        assertTrue(fit.rSquared() > 0.99, "r^2 " + fit.rSquared());
+
+        assertEquals(kBands.length - 1, gains.table().length);
+        assertTrue(gains.kP() > 0 && gains.kD() > 0, "kP " + gains.kP() + ", kD " + gains.kD());
+        assertEquals(List.of(), ElevatorGainFitter.problems(gains));
+    }
+
+    @Test
+    void rejectsNonPositiveKA() {
+        Fit fit = new Fit(kS, kG, kV, -0.01, 0.99, 500);
+        List<String> problems = ElevatorGainFitter.problems(new Gains(fit, new double[0][], Double.NaN, Double.NaN));
+        assertTrue(problems.stream().anyMatch(problem -> problem.contains("kA")), problems.toString());
+    }
+
+    @Test
+    void rejectsPoorFit() {
+        Fit fit = new Fit(kS, kG, kV, kA, ElevatorGainFitter.kMinRSquared - 0.1, 500);
+        List<String> problems = ElevatorGainFitter.problems(new Gains(fit, new double[0][], 20, 1));
+        assertTrue(problems.stream().anyMatch(problem -> problem.contains("r^2")), problems.toString());
+    }
+
+    @Test
+    void rejectsExcessiveFeedback() {
+        Fit fit = new Fit(kS, kG, kV, kA, 0.99, 500);
+        List<String> problems = ElevatorGainFitter.problems(
+            new Gains(fit, new double[0][], ElevatorGainFitter.kMaxKP * 2, ElevatorGainFitter.kMaxKD * 2));
+        assertTrue(problems.stream().anyMatch(problem -> problem.contains("kP")), problems.toString());
+        assertTrue(problems.stream().anyMatch(problem -> problem.contains("kD")), problems.toString());
+    }
+
+    @Test
+    void acceptsReasonableGains() {
+        Fit fit = new Fit(kS, kG, kV, kA, 0.99, 500);
+        assertEquals(List.of(), ElevatorGainFitter.problems(new Gains(fit, new double[0][], 20, 1)));
+    }
+}
@@ -0,0 +1,61 @@
+package frc.robot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.controller.ElevatorFeedforward;
+
+class ElevatorFeedforwardTableTest {
+    private static final double kDt = 0.02;
+    private static final double kEpsilon = 1e-9;
+
+    // {heightMeters, kS, kG, kV, kA}
+    private static final double[][] kEmpty = {
+        {0.0, 0.1, 1.0, 2.0, 0.0},
+        {1.0, 0.3, 2.0, 4.0, 0.0},
+    };
+    private static final double[][] kCoral = {
+        {0.0, 0.1, 3.0, 2.0, 0.0},
+        {1.0, 0.3, 4.0, 4.0, 0.0},
+    };
+
+    private final ElevatorFeedforwardTable table = new ElevatorFeedforwardTable(kEmpty, kCoral, kDt);
+
+    @Test
+    void holdsWithInterpolatedKG() {
+        assertEquals(1.0, table.calculate(0.0, false, 0, 0), kEpsilon);
+        assertEquals(1.5, table.calculate(0.5, false, 0, 0), kEpsilon);
+        assertEquals(2.0, table.calculate(1.0, false, 0, 0), kEpsilon);
+        assertEquals(1.5, table.getKG(0.5, false), kEpsilon);
+    }
+
+    @Test
+    void interpolatesEveryGainBetweenRows() {
+        // A quarter of the way up: kS 0.15, kG 1.25, kV 2.5
+        assertEquals(0.15 + 1.25 + 2.5 * 0.5, table.calculate(0.25, false, 0.5, 0.5), kEpsilon);
+        assertEquals(-0.15 + 1.25 - 2.5 * 0.5, table.calculate(0.25, false, -0.5, -0.5), kEpsilon);
+    }
+
+    @Test
+    void clampsOutsideTheTable() {
+        assertEquals(1.0, table.calculate(-0.2, false, 0, 0), kEpsilon);
+        assertEquals(2.0, table.calculate(1.5, false, 0, 0), kEpsilon);
+    }
+
+    @Test
+    void selectsRowsByLoad() {
+        assertEquals(3.5, table.calculate(0.5, true, 0, 0), kEpsilon);
+        assertEquals(3.5, table.getKG(0.5, true), kEpsilon);
+        assertEquals(1.5, table.calculate(0.5, false, 0, 0), kEpsilon);
+    }
+
+    @Test
+    void matchesElevatorFeedforwardWithAcceleration() {
+        double[][] rows = {{0.0, 0.2, 0.8, 2.4, 0.3}};
+        ElevatorFeedforwardTable single = new ElevatorFeedforwardTable(rows, rows, kDt);
+        ElevatorFeedforward reference = new ElevatorFeedforward(0.2, 0.8, 2.4, 0.3, kDt);
+        assertEquals(reference.calculateWithVelocities(0.1, 0.3), single.calculate(0.7, false, 0.1, 0.3), kEpsilon);
+        assertEquals(reference.calculateWithVelocities(0.3, -0.2), single.calculate(0.7, true, 0.3, -0.2), kEpsilon);
+    }
+}
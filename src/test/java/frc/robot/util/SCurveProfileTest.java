@@ -0,0 +1,88 @@
+package frc.robot.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SCurveProfileTest {
+    private static final double kMaxVelocity = 2.0;
+    private static final double kMaxAcceleration = 4.0;
+    private static final double kMaxJerk = 20.0;
+    private static final double kDt = 1e-4;
+    private static final double kEpsilon = 1e-6;
+
+    /** Samples the profile and checks the velocity and acceleration limits hold throughout. */
+    private static void assertWithinLimits(SCurveProfile profile) {
+        double lastVelocity = profile.velocity(0);
+        for (double t = kDt; t <= profile.totalTime() + kDt; t += kDt) {
+            double velocity = profile.velocity(t);
+            assertTrue(Math.abs(velocity) <= kMaxVelocity + kEpsilon, "velocity " + velocity + " at " + t);
+            double acceleration = (velocity - lastVelocity) / kDt;
+            assertTrue(Math.abs(acceleration) <= kMaxAcceleration + kEpsilon,
+                       "acceleration " + acceleration + " at " + t);
+            lastVelocity = velocity;
+        }
+    }
+
+    @Test
+    void longMoveCruisesAtTheVelocityLimit() {
+        SCurveProfile profile = new SCurveProfile(0.0, 3.0, kMaxVelocity, kMaxAcceleration, kMaxJerk);
+
+        assertEquals(kMaxVelocity, profile.getPeakVelocity(), kEpsilon);
+        assertEquals(kMaxVelocity, profile.velocity(profile.totalTime() / 2), kEpsilon);
+        assertWithinLimits(profile);
+    }
+
+    @Test
+    void reachesTheGoalAtRest() {
+        SCurveProfile profile = new SCurveProfile(0.2, 1.4, kMaxVelocity, kMaxAcceleration, kMaxJerk);
+
+        assertEquals(0.2, profile.position(0), kEpsilon);
+        assertEquals(1.4, profile.position(profile.totalTime()), kEpsilon);
+        assertEquals(1.4, profile.position(profile.totalTime() + 1), kEpsilon);
+        assertEquals(0.0, profile.velocity(profile.totalTime()), kEpsilon);
+        assertTrue(profile.isFinished(profile.totalTime()));
+        assertTrue(!profile.isFinished(profile.totalTime() / 2));
+    }
+
+    @Test
+    void movesDownward() {
+        SCurveProfile profile = new SCurveProfile(1.4, 0.2, kMaxVelocity, kMaxAcceleration, kMaxJerk);
+
+        assertEquals(0.2, profile.position(profile.totalTime()), kEpsilon);
+        assertTrue(profile.velocity(profile.totalTime() / 2) < 0);
+        assertWithinLimits(profile);
+    }
+
+    @Test
+    void shortMovePeaksBelowTheVelocityLimit() {
+        // Too short to reach either limit: the bisected peak has to land exactly on the goal with no cruise
+        SCurveProfile profile = new SCurveProfile(0.0, 0.05, kMaxVelocity, kMaxAcceleration, kMaxJerk);
+
+        assertTrue(profile.getPeakVelocity() < kMaxVelocity);
+        assertTrue(profile.getPeakVelocity() < kMaxAcceleration * kMaxAcceleration / kMaxJerk);
+        assertEquals(0.05, profile.position(profile.totalTime()), kEpsilon);
+        assertEquals(profile.getPeakVelocity(), profile.velocity(profile.totalTime() / 2), kEpsilon);
+        assertWithinLimits(profile);
+    }
+
+    @Test
+    void mediumMoveReachesTheAccelerationLimitButNotTheVelocityLimit() {
+        SCurveProfile profile = new SCurveProfile(0.0, 1.0, kMaxVelocity, kMaxAcceleration, kMaxJerk);
+
+        assertTrue(profile.getPeakVelocity() < kMaxVelocity);
+        assertTrue(profile.getPeakVelocity() > kMaxAcceleration * kMaxAcceleration / kMaxJerk);
+        assertEquals(1.0, profile.position(profile.totalTime()), kEpsilon);
+        assertWithinLimits(profile);
+    }
+
+    @Test
+    void zeroLengthMoveIsAlreadyFinished() {
+        SCurveProfile profile = new SCurveProfile(0.5, 0.5, kMaxVelocity, kMaxAcceleration, kMaxJerk);
+
+        assertEquals(0.0, profile.totalTime(), kEpsilon);
+        assertEquals(0.5, profile.position(0.1), kEpsilon);
+        assertEquals(0.0, profile.velocity(0.1), kEpsilon);
+    }
+}
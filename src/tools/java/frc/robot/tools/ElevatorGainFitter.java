@@ -0,0 +1,372 @@
+package frc.robot.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.ejml.simple.SimpleMatrix;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.controller.LinearQuadraticRegulator;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+import edu.wpi.first.math.system.LinearSystem;
+import edu.wpi.first.math.system.plant.LinearSystemId;
+import edu.wpi.first.util.datalog.DataLogReader;
+import edu.wpi.first.util.datalog.DataLogRecord;
+
+/**
+ * Fits elevator gains from the .wpilog written while running ElevatorSubsystem.runSysIdRoutine(), and writes
+ * them to deploy/elevator/gains.json for ElevatorGains to load at startup.
+ *
+ * <p>The feedforward {@code V = kS*sgn(v) + kG + kV*v + kA*a} is fitted by ordinary least squares over every
+ * sample from all four tests, once over the whole travel and once per height band for the feedforward table.
+ * kP and kD come from an LQR on the fitted position model, compensated for measurement latency.
+ *
+ * <pre>
+ * ./gradlew fitElevatorGains -PsysidLog=path/to/FRC_xxx.wpilog
+ * ./gradlew fitElevatorGains -PsysidLog=path/to/FRC_xxx.wpilog -PgainsArgs="--qpos 0.01 --latency 0.02"
+ * </pre>
+ *
+ * <p>Arguments:
+ * <ul>
+ *   <li>--log FILE: the .wpilog to read (required)</li>
+ *   <li>--out FILE: gains file to write, default src/main/deploy/elevator/gains.json</li>
+ *   <li>--motor NAME: motor name passed to SysIdRoutineLog.motor(), default elevator-improved</li>
+ *   <li>--bands H0,H1,...: height band edges in meters for the feedforward table, default 0,0.55,1.10,1.64</li>
+ *   <li>--qpos M, --qvel M/S, --r V: LQR state and effort tolerances, default 0.02, 0.4, 12</li>
+ *   <li>--dt S: controller period, default 0.02</li>
+ *   <li>--latency S: measurement latency to compensate for, default 0</li>
+ *   <li>--force: write the gains even if they fail the sanity checks</li>
+ * </ul>
+ *
+ * <p>Nothing is written if the whole-travel fit has kA &lt;= 0 or an r^2 below {@link #kMinRSquared}, or if the
+ * LQR gains come out above {@link #kMaxKP} or {@link #kMaxKD}; these usually mean a bad or truncated log, and the
+ * elevator would otherwise pick the gains up on the next deploy. Bands failing the same feedforward checks fall
+ * back to the whole-travel fit.
+ */
+public final class ElevatorGainFitter {
+    // Samples slower than this are dropped, the mechanism hasn't broken static friction yet
+    private static final double kMinVelocity = 0.01;
+    // Bands with fewer samples than this (or no motion in one direction) use the whole-travel fit
+    private static final int kMinBandSamples = 50;
+    // Fits explaining less of the voltage than this are rejected
+    static final double kMinRSquared = 0.9;
+    // Feedback gains above these saturate the motors on a few centimeters of error or noise
+    static final double kMaxKP = 100; // V/m
+    static final double kMaxKD = 10; // V/(m/s)
+
+    private ElevatorGainFitter() {}
+
+    /** One logged frame: time, applied voltage, height, velocity and acceleration. */
+    private record Sample(double t, double volts, double position, double velocity, double acceleration) {}
+
+    /** Result of one least squares fit. */
+    record Fit(double kS, double kG, double kV, double kA, double rSquared, int samples) {}
+
+    /**
+     * Everything fitted from one log.
+     *
+     * @param overall whole-travel feedforward fit
+     * @param table   {heightMeters, kS, kG, kV, kA} row per height band
+     * @param kP      LQR position gain in V/m, NaN if the overall fit has no usable kA
+     * @param kD      LQR velocity gain in V/(m/s), NaN if the overall fit has no usable kA
+     */
+    record Gains(Fit overall, double[][] table, double kP, double kD) {}
+
+    public static void main(String... args) throws IOException {
+        String logFile = null;
+        String outFile = "src/main/deploy/elevator/gains.json";
+        String motor = "elevator-improved";
+        double[] bands = {0, 0.55, 1.10, 1.64};
+        double qPos = 0.02;
+        double qVel = 0.4;
+        double r = 12;
+        double dt = 0.02;
+        double latency = 0;
+        boolean force = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--log" -> logFile = args[++i];
+                case "--out" -> outFile = args[++i];
+                case "--motor" -> motor = args[++i];
+                case "--bands" -> {
+                    String[] edges = args[++i].split(",");
+                    bands = new double[edges.length];
+                    for (int j = 0; j < edges.length; j++) {
+                        bands[j] = Double.parseDouble(edges[j].trim());
+                    }
+                }
+                case "--qpos" -> qPos = Double.parseDouble(args[++i]);
+                case "--qvel" -> qVel = Double.parseDouble(args[++i]);
+                case "--r" -> r = Double.parseDouble(args[++i]);
+                case "--dt" -> dt = Double.parseDouble(args[++i]);
+                case "--latency" -> latency = Double.parseDouble(args[++i]);
+                case "--force" -> force = true;
+                default -> throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (logFile == null) {
+            throw new IllegalArgumentException("--log is required");
+        }
+
+        Gains fitted = fitLog(logFile, motor, bands, qPos, qVel, r, dt, latency);
+
+        List<String> problems = problems(fitted);
+        if (!problems.isEmpty()) {
+            System.err.println("**************************************************************");
+            for (String problem : problems) {
+                System.err.println("* " + problem);
+            }
+            System.err.println("**************************************************************");
+            if (!force) {
+                System.err.println("Not writing " + outFile + ". Check the log, or pass --force to write anyway.");
+                System.exit(1);
+            }
+            if (Double.isNaN(fitted.kP())) {
+                System.err.println("Not writing " + outFile + ", there are no feedback gains without a positive kA.");
+                System.exit(1);
+            }
+            System.err.println("--force given, writing " + outFile + " anyway");
+        }
+        Fit overall = fitted.overall();
+
+        File out = new File(outFile);
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        int version = 1;
+        if (out.exists()) {
+            JsonNode previous = mapper.readTree(out);
+            version = previous.path("version").asInt(0) + 1;
+        }
+        Map<String, Object> gains = new LinkedHashMap<>();
+        gains.put("version", version);
+        gains.put("generated", Instant.now().toString());
+        gains.put("source", new File(logFile).getName());
+        gains.put("kS", overall.kS());
+        gains.put("kG", overall.kG());
+        gains.put("kV", overall.kV());
+        gains.put("kA", overall.kA());
+        gains.put("kP", fitted.kP());
+        gains.put("kI", 0.0);
+        gains.put("kD", fitted.kD());
+        gains.put("feedforwardTable", fitted.table());
+        gains.put("rSquared", overall.rSquared());
+        gains.put("samples", overall.samples());
+        gains.put("lqr", Map.of("qPos", qPos, "qVel", qVel, "r", r, "dt", dt, "latency", latency));
+        out.getParentFile().mkdirs();
+        mapper.writeValue(out, gains);
+        System.out.printf(Locale.ROOT, "Wrote v%d to %s%n", version, out);
+    }
+
+    /**
+     * Fit the whole-travel feedforward, one feedforward per height band and the LQR feedback gains from a log.
+     *
+     * @throws IOException if the log can't be read
+     * @throws IllegalStateException if there isn't enough up and down motion to fit anything
+     */
+    static Gains fitLog(String logFile, String motor, double[] bands, double qPos, double qVel, double r, double dt,
+                        double latency) throws IOException {
+        List<Sample> samples = readSamples(logFile, motor);
+        System.out.printf(Locale.ROOT, "%d samples from %s%n", samples.size(), logFile);
+
+        Fit overall = fit(samples);
+        if (overall == null) {
+            throw new IllegalStateException("Not enough up and down motion in the log to fit a feedforward");
+        }
+        print("all heights", overall);
+
+        double[][] table = new double[bands.length - 1][];
+        for (int band = 0; band < bands.length - 1; band++) {
+            double low = bands[band];
+            double high = bands[band + 1];
+            List<Sample> inBand = new ArrayList<>();
+            for (Sample sample : samples) {
+                if (sample.position() >= low && sample.position() < high) {
+                    inBand.add(sample);
+                }
+            }
+            Fit bandFit = fit(inBand);
+            String label = String.format(Locale.ROOT, "%.2f-%.2f m", low, high);
+            if (bandFit == null) {
+                System.out.printf(Locale.ROOT, "%s: not enough data, using the all-heights fit%n", label);
+                bandFit = overall;
+            } else {
+                print(label, bandFit);
+                if (!feedforwardProblems(label, bandFit).isEmpty()) {
+                    System.out.printf(Locale.ROOT, "%s: fails the sanity checks, using the all-heights fit%n", label);
+                    bandFit = overall;
+                }
+            }
+            table[band] = new double[] {(low + high) / 2, bandFit.kS(), bandFit.kG(), bandFit.kV(), bandFit.kA()};
+        }
+
+        // Feedback from an LQR on the position model x' = [v, -kV/kA v + 1/kA u], which needs kA > 0
+        if (overall.kA() <= 0) {
+            return new Gains(overall, table, Double.NaN, Double.NaN);
+        }
+        LinearSystem<N2, N1, N2> plant = LinearSystemId.identifyPositionSystem(overall.kV(), overall.kA());
+        LinearQuadraticRegulator<N2, N1, N2> lqr =
+            new LinearQuadraticRegulator<>(plant, VecBuilder.fill(qPos, qVel), VecBuilder.fill(r), dt);
+        if (latency > 0) {
+            lqr.latencyCompensate(plant, dt, latency);
+        }
+        Matrix<N1, N2> k = lqr.getK();
+        double kP = k.get(0, 0);
+        double kD = k.get(0, 1);
+        System.out.printf(Locale.ROOT, "LQR: kP %.4f V/m, kD %.4f V/(m/s)%n", kP, kD);
+        return new Gains(overall, table, kP, kD);
+    }
+
+    /**
+     * @return why the fitted gains shouldn't be trusted, empty if they pass every check
+     */
+    static List<String> problems(Gains gains) {
+        List<String> problems = new ArrayList<>(feedforwardProblems("all heights", gains.overall()));
+        if (!(gains.kP() <= kMaxKP)) {
+            problems.add(String.format(Locale.ROOT, "kP %.4f V/m is not under the %.1f V/m limit", gains.kP(), kMaxKP));
+        }
+        if (!(gains.kD() <= kMaxKD)) {
+            problems.add(String.format(Locale.ROOT, "kD %.4f V/(m/s) is not under the %.1f V/(m/s) limit",
+                                       gains.kD(), kMaxKD));
+        }
+        return problems;
+    }
+
+    private static List<String> feedforwardProblems(String label, Fit fit) {
+        List<String> problems = new ArrayList<>();
+        if (!(fit.kA() > 0)) {
+            problems.add(String.format(Locale.ROOT, "%s: kA %.4f is not positive", label, fit.kA()));
+        }
+        if (!(fit.rSquared() >= kMinRSquared)) {
+            problems.add(String.format(Locale.ROOT, "%s: r^2 %.4f is under %.2f", label, fit.rSquared(), kMinRSquared));
+        }
+        return problems;
+    }
+
+    /**
+     * Pull voltage, position and velocity frames for one motor out of the log. Frames logged while no test was
+     * running, or below the motion threshold, are dropped.
+     */
+    private static List<Sample> readSamples(String logFile, String motor) throws IOException {
+        DataLogReader reader = new DataLogReader(logFile);
+        if (!reader.isValid()) {
+            throw new IOException(logFile + " is not a valid .wpilog");
+        }
+
+        // SysIdRoutineLog names entries "<quantity>-<motor>-<mechanism>" and "sysid-test-state-<mechanism>"
+        Map<Integer, String> entries = new HashMap<>();
+        String state = "none";
+        double volts = Double.NaN;
+        double position = Double.NaN;
+        List<double[]> frames = new ArrayList<>();
+        List<String> frameStates = new ArrayList<>();
+        for (DataLogRecord record : reader) {
+            if (record.isStart()) {
+                DataLogRecord.StartRecordData start = record.getStartData();
+                entries.put(start.entry, start.name);
+                continue;
+            }
+            if (record.isControl()) {
+                continue;
+            }
+            String name = entries.get(record.getEntry());
+            if (name == null) {
+                continue;
+            }
+            if (name.startsWith("sysid-test-state")) {
+                state = record.getString();
+            } else if (name.startsWith("voltage-" + motor + "-")) {
+                volts = record.getDouble();
+            } else if (name.startsWith("position-" + motor + "-")) {
+                position = record.getDouble();
+            } else if (name.startsWith("velocity-" + motor + "-")) {
+                // Velocity is logged last in each frame
+                if (!state.equals("none") && !Double.isNaN(volts) && !Double.isNaN(position)) {
+                    frames.add(new double[] {record.getTimestamp() / 1e6, volts, position, record.getDouble()});
+                    frameStates.add(state);
+                }
+            }
+        }
+
+        // Central difference acceleration, within a single test only
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 1; i < frames.size() - 1; i++) {
+            if (!frameStates.get(i - 1).equals(frameStates.get(i)) || !frameStates.get(i + 1).equals(frameStates.get(i))) {
+                continue;
+            }
+            double[] prev = frames.get(i - 1);
+            double[] cur = frames.get(i);
+            double[] next = frames.get(i + 1);
+            if (Math.abs(cur[3]) < kMinVelocity) {
+                continue;
+            }
+            double acceleration = (next[3] - prev[3]) / (next[0] - prev[0]);
+            samples.add(new Sample(cur[0], cur[1], cur[2], cur[3], acceleration));
+        }
+        return samples;
+    }
+
+    /**
+     * Least squares fit of {@code V = kS*sgn(v) + kG + kV*v + kA*a}.
+     *
+     * @return the fit, or null if there's too little data or no motion in one direction (kS and kG can't be
+     *     told apart)
+     */
+    private static Fit fit(List<Sample> samples) {
+        int up = 0;
+        int down = 0;
+        for (Sample sample : samples) {
+            if (sample.velocity() > 0) {
+                up++;
+            } else {
+                down++;
+            }
+        }
+        if (samples.size() < kMinBandSamples || up == 0 || down == 0) {
+            return null;
+        }
+
+        SimpleMatrix x = new SimpleMatrix(samples.size(), 4);
+        SimpleMatrix y = new SimpleMatrix(samples.size(), 1);
+        double mean = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            Sample sample = samples.get(i);
+            x.set(i, 0, Math.signum(sample.velocity()));
+            x.set(i, 1, 1);
+            x.set(i, 2, sample.velocity());
+            x.set(i, 3, sample.acceleration());
+            y.set(i, 0, sample.volts());
+            mean += sample.volts();
+        }
+        mean /= samples.size();
+
+        // Normal equations, the regressors are only 4 wide
+        SimpleMatrix beta = x.transpose().mult(x).solve(x.transpose().mult(y));
+
+        SimpleMatrix residuals = y.minus(x.mult(beta));
+        double ssRes = 0;
+        double ssTot = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            ssRes += residuals.get(i, 0) * residuals.get(i, 0);
+            ssTot += (y.get(i, 0) - mean) * (y.get(i, 0) - mean);
+        }
+        return new Fit(beta.get(0, 0), beta.get(1, 0), beta.get(2, 0), beta.get(3, 0), 1 - ssRes / ssTot,
+                       samples.size());
+    }
+
+    private static void print(String label, Fit fit) {
+        System.out.printf(Locale.ROOT, "%s: kS %.4f, kG %.4f, kV %.4f, kA %.4f (r^2 %.4f, %d samples)%n",
+                          label, fit.kS(), fit.kG(), fit.kV(), fit.kA(), fit.rSquared(), fit.samples());
+    }
+}